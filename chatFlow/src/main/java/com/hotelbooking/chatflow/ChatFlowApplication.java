@@ -3,9 +3,11 @@ package com.hotelbooking.chatflow;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.data.r2dbc.repository.config.EnableR2dbcRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableR2dbcRepositories
+@EnableScheduling
 public class ChatFlowApplication {
 
     public static void main(String[] args) {
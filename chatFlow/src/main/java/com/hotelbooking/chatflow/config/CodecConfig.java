@@ -0,0 +1,124 @@
+package com.hotelbooking.chatflow.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.EncodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Smile ({@code application/x-jackson-smile}), a binary encoding of the JSON data model, for
+ * clients that send it in Accept. It carries the same fields as JSON but refers back to field
+ * names and short strings already written in the response instead of repeating them, which
+ * is most of a message page.
+ */
+@Configuration
+public class CodecConfig {
+
+    // The codecs' defaults, which only apply when they build their own mapper
+    private static final MimeType[] SMILE_MIME_TYPES = {
+            new MimeType("application", "x-jackson-smile"),
+            new MimeType("application", "*+x-jackson-smile")
+    };
+
+    /**
+     * WebFlux registers a Smile codec on its own, but with a plain mapper; this one goes through
+     * the same customizers as the JSON mapper so dates and nulls come out the same way.
+     */
+    @Bean
+    public CodecCustomizer smileCodecCustomizer(ObjectProvider<Jackson2ObjectMapperBuilderCustomizer> customizers) {
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.smile();
+        customizers.orderedStream().forEach(customizer -> customizer.customize(builder));
+        ObjectMapper smileMapper = builder.build();
+        return configurer -> {
+            configurer.defaultCodecs().jackson2SmileEncoder(new SmileArrayEncoder(smileMapper));
+            configurer.defaultCodecs().jackson2SmileDecoder(new Jackson2SmileDecoder(smileMapper, SMILE_MIME_TYPES));
+        };
+    }
+
+    /**
+     * Writes a Flux body as one Smile array, element by element as they arrive. The stock
+     * encoder joins elements with JSON's brackets and commas, which is not valid Smile, and
+     * starts a new document for every element, so no field name is ever shared between rows.
+     */
+    static class SmileArrayEncoder extends Jackson2SmileEncoder {
+
+        SmileArrayEncoder(ObjectMapper mapper) {
+            super(mapper, SMILE_MIME_TYPES);
+        }
+
+        @Override
+        public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+                                       ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+            if (inputStream instanceof Mono || getStreamingMediaTypeSeparator(mimeType) != null) {
+                return super.encode(inputStream, bufferFactory, elementType, mimeType, hints);
+            }
+            ObjectWriter writer = getObjectMapper().writerFor(getObjectMapper().constructType(elementType.getType()));
+            // One generator for the whole array, so later elements refer back to names written earlier
+            return Flux.using(() -> new ArrayWriter(getObjectMapper().getFactory()),
+                    array -> Flux.from(inputStream)
+                            .map(value -> array.write(writer, value, bufferFactory))
+                            .concatWith(Mono.fromCallable(() -> array.end(bufferFactory))),
+                    ArrayWriter::close);
+        }
+    }
+
+    private static final class ArrayWriter {
+
+        private final ByteArrayBuilder bytes = new ByteArrayBuilder();
+        private final JsonGenerator generator;
+
+        ArrayWriter(JsonFactory factory) throws IOException {
+            generator = factory.createGenerator(bytes);
+            generator.writeStartArray();
+        }
+
+        DataBuffer write(ObjectWriter writer, Object value, DataBufferFactory bufferFactory) {
+            try {
+                writer.writeValue(generator, value);
+                return drain(bufferFactory);
+            } catch (IOException e) {
+                throw new EncodingException("Could not write Smile: " + e.getMessage(), e);
+            }
+        }
+
+        DataBuffer end(DataBufferFactory bufferFactory) throws IOException {
+            generator.writeEndArray();
+            return drain(bufferFactory);
+        }
+
+        private DataBuffer drain(DataBufferFactory bufferFactory) throws IOException {
+            generator.flush();
+            DataBuffer buffer = bufferFactory.wrap(bytes.toByteArray());
+            bytes.reset();
+            return buffer;
+        }
+
+        void close() {
+            try {
+                generator.close();
+            } catch (IOException ignored) {
+                // Nothing is left to write to; the bytes only ever went to memory
+            }
+        }
+    }
+}
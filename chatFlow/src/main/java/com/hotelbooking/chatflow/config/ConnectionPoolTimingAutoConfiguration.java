@@ -0,0 +1,31 @@
+package com.hotelbooking.chatflow.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnSingleCandidate;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import java.util.Map;
+
+/**
+ * Puts a {@link TimedConnectionFactory} in front of the connection pool for everything that
+ * injects a {@link ConnectionFactory}. An auto-configuration rather than a plain
+ * {@code @Configuration}: declared in user configuration, a second {@code ConnectionFactory}
+ * would stop Boot from creating the pool at all.
+ */
+@AutoConfiguration(after = R2dbcAutoConfiguration.class)
+@ConditionalOnSingleCandidate(ConnectionPool.class)
+public class ConnectionPoolTimingAutoConfiguration {
+
+    @Bean
+    @Primary
+    public ConnectionFactory timedConnectionFactory(Map<String, ConnectionPool> pools, MeterRegistry meterRegistry) {
+        // Tagged with the pool's bean name, like Boot's r2dbc.pool.* gauges
+        Map.Entry<String, ConnectionPool> pool = pools.entrySet().iterator().next();
+        return new TimedConnectionFactory(pool.getValue(), pool.getKey(), meterRegistry);
+    }
+}
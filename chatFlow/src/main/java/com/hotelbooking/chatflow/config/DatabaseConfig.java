@@ -4,6 +4,7 @@ import io.r2dbc.spi.ConnectionFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.r2dbc.connection.init.CompositeDatabasePopulator;
 import org.springframework.r2dbc.connection.init.ConnectionFactoryInitializer;
 import org.springframework.r2dbc.connection.init.ResourceDatabasePopulator;
 
@@ -15,10 +16,20 @@ public class DatabaseConfig {
         ConnectionFactoryInitializer initializer = new ConnectionFactoryInitializer();
         initializer.setConnectionFactory(connectionFactory);
         
+        // PL/pgSQL bodies contain semicolons, so this script uses its own statement separator
+        ResourceDatabasePopulator partitioning = new ResourceDatabasePopulator();
+        partitioning.addScript(new ClassPathResource("messages-partitioning.sql"));
+        partitioning.setSeparator("^;");
+        
         ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
         populator.addScript(new ClassPathResource("schema.sql"));
         
-        initializer.setDatabasePopulator(populator);
+        // One-off upgrades of existing databases, guarded so they only ever run once
+        ResourceDatabasePopulator migrations = new ResourceDatabasePopulator();
+        migrations.addScript(new ClassPathResource("schema-migrations.sql"));
+        migrations.setSeparator("^;");
+        
+        initializer.setDatabasePopulator(new CompositeDatabasePopulator(partitioning, populator, migrations));
         return initializer;
     }
 }
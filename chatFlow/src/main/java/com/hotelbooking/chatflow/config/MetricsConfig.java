@@ -0,0 +1,19 @@
+package com.hotelbooking.chatflow.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Schedulers;
+
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public SchedulerMetrics boundedElasticSchedulerMetrics() {
+        return new SchedulerMetrics(Schedulers.boundedElastic(), "boundedElastic");
+    }
+
+    @Bean
+    public SchedulerMetrics parallelSchedulerMetrics() {
+        return new SchedulerMetrics(Schedulers.parallel(), "parallel");
+    }
+}
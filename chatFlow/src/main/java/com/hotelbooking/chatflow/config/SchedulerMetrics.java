@@ -0,0 +1,43 @@
+package com.hotelbooking.chatflow.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import reactor.core.Scannable;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Saturation gauges for a Reactor scheduler, tagged with {@code scheduler}:
+ * {@code reactor.scheduler.threads} (live workers), {@code reactor.scheduler.threads.max}
+ * and {@code reactor.scheduler.tasks.queued} (tasks waiting for a worker, summed over workers).
+ */
+public class SchedulerMetrics implements MeterBinder {
+
+    private final Scheduler scheduler;
+    private final String name;
+
+    public SchedulerMetrics(Scheduler scheduler, String name) {
+        this.scheduler = scheduler;
+        this.name = name;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Scannable scannable = Scannable.from(scheduler);
+        Gauge.builder("reactor.scheduler.threads", scannable, s -> s.scanOrDefault(Scannable.Attr.BUFFERED, 0))
+                .tag("scheduler", name)
+                .register(registry);
+        Gauge.builder("reactor.scheduler.threads.max", scannable, s -> s.scanOrDefault(Scannable.Attr.CAPACITY, 0))
+                .tag("scheduler", name)
+                .register(registry);
+        Gauge.builder("reactor.scheduler.tasks.queued", scannable, SchedulerMetrics::queuedTasks)
+                .tag("scheduler", name)
+                .register(registry);
+    }
+
+    private static double queuedTasks(Scannable scheduler) {
+        return scheduler.inners()
+                .mapToInt(worker -> worker.scanOrDefault(Scannable.Attr.BUFFERED, 0))
+                .sum();
+    }
+}
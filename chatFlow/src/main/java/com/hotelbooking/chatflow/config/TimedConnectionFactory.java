@@ -0,0 +1,49 @@
+package com.hotelbooking.chatflow.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Mono;
+
+/**
+ * Hands out connections from the pool, timing how long each caller waits for one as
+ * {@code r2dbc.pool.acquire}. The pool stays its own bean, so Boot's {@code r2dbc.pool.*}
+ * gauges and health check keep finding it; this is deliberately not {@code Wrapped}, which
+ * would make Boot register those gauges a second time under this bean's name.
+ */
+class TimedConnectionFactory implements ConnectionFactory {
+
+    private final ConnectionFactory delegate;
+    private final Timer acquired;
+    private final Timer failed;
+
+    TimedConnectionFactory(ConnectionFactory delegate, String poolName, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.acquired = Timer.builder("r2dbc.pool.acquire")
+                .tag("name", poolName)
+                .tag("outcome", "success")
+                .register(meterRegistry);
+        this.failed = Timer.builder("r2dbc.pool.acquire")
+                .tag("name", poolName)
+                .tag("outcome", "error")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Publisher<? extends Connection> create() {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start();
+            return Mono.from(delegate.create())
+                    .doOnNext(connection -> sample.stop(acquired))
+                    .doOnError(error -> sample.stop(failed));
+        });
+    }
+
+    @Override
+    public ConnectionFactoryMetadata getMetadata() {
+        return delegate.getMetadata();
+    }
+}
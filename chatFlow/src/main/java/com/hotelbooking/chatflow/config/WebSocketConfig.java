@@ -0,0 +1,18 @@
+package com.hotelbooking.chatflow.config;
+
+import com.hotelbooking.chatflow.realtime.ChatWebSocketHandler;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
+
+import java.util.Map;
+
+@Configuration
+public class WebSocketConfig {
+
+    @Bean
+    public HandlerMapping webSocketHandlerMapping(ChatWebSocketHandler chatWebSocketHandler) {
+        return new SimpleUrlHandlerMapping(Map.of("/ws/messages", chatWebSocketHandler), -1);
+    }
+}
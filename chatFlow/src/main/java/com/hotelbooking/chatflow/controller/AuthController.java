@@ -6,9 +6,11 @@ import com.hotelbooking.chatflow.dto.RegisterRequest;
 import com.hotelbooking.chatflow.service.AuthService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Mono;
 
 import java.util.Map;
@@ -24,6 +26,7 @@ public class AuthController {
     public Mono<ResponseEntity<AuthResponse>> register(@Valid @RequestBody RegisterRequest request) {
         return authService.register(request)
                 .map(ResponseEntity::ok)
+                .onErrorResume(ResponseStatusException.class, this::overloaded)
                 .onErrorResume(e -> Mono.just(
                         ResponseEntity.status(HttpStatus.BAD_REQUEST)
                                 .body(null)
@@ -34,12 +37,20 @@ public class AuthController {
     public Mono<ResponseEntity<AuthResponse>> login(@Valid @RequestBody LoginRequest request) {
         return authService.login(request)
                 .map(ResponseEntity::ok)
+                .onErrorResume(ResponseStatusException.class, this::overloaded)
                 .onErrorResume(e -> Mono.just(
                         ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                                 .body(null)
                 ));
     }
 
+    // Password hashing is saturated; tell clients to retry rather than report bad credentials
+    private Mono<ResponseEntity<AuthResponse>> overloaded(ResponseStatusException e) {
+        return Mono.just(ResponseEntity.status(e.getStatusCode())
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .<AuthResponse>body(null));
+    }
+
     @GetMapping("/health")
     public Mono<ResponseEntity<Map<String, String>>> health() {
         return Mono.just(ResponseEntity.ok(Map.of(
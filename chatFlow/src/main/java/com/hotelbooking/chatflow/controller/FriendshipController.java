@@ -3,9 +3,12 @@ package com.hotelbooking.chatflow.controller;
 import com.hotelbooking.chatflow.dto.FriendRequestDto;
 import com.hotelbooking.chatflow.dto.FriendshipDto;
 import com.hotelbooking.chatflow.dto.UserSearchDto;
+import com.hotelbooking.chatflow.realtime.ListVersions;
+import com.hotelbooking.chatflow.realtime.ListVersions.ListKind;
 import com.hotelbooking.chatflow.service.FriendshipService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -18,6 +21,7 @@ import reactor.core.publisher.Mono;
 public class FriendshipController {
 
     private final FriendshipService friendshipService;
+    private final ListVersions listVersions;
 
     @PostMapping("/request")
     public Mono<ResponseEntity<FriendshipDto>> sendFriendRequest(
@@ -64,13 +68,19 @@ public class FriendshipController {
     }
 
     @GetMapping("/friends")
-    public Flux<FriendshipDto> getFriends(@RequestHeader("X-User-Id") Long userId) {
-        return friendshipService.getFriends(userId);
+    public ResponseEntity<Flux<FriendshipDto>> getFriends(
+            @RequestHeader("X-User-Id") Long userId,
+            @RequestHeader HttpHeaders headers) {
+        return listVersions.conditional(userId, ListKind.FRIENDS, headers,
+                () -> friendshipService.getFriends(userId));
     }
 
     @GetMapping("/pending")
-    public Flux<FriendshipDto> getPendingRequests(@RequestHeader("X-User-Id") Long userId) {
-        return friendshipService.getPendingRequests(userId);
+    public ResponseEntity<Flux<FriendshipDto>> getPendingRequests(
+            @RequestHeader("X-User-Id") Long userId,
+            @RequestHeader HttpHeaders headers) {
+        return listVersions.conditional(userId, ListKind.PENDING_REQUESTS, headers,
+                () -> friendshipService.getPendingRequests(userId));
     }
 
     @GetMapping("/search")
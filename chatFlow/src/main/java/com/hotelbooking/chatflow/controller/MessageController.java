@@ -1,12 +1,20 @@
 package com.hotelbooking.chatflow.controller;
 
 import com.hotelbooking.chatflow.dto.ConversationDto;
+import com.hotelbooking.chatflow.dto.MarkReadRequest;
+import com.hotelbooking.chatflow.dto.MessageCursor;
 import com.hotelbooking.chatflow.dto.MessageDto;
+import com.hotelbooking.chatflow.dto.MessagePageDto;
 import com.hotelbooking.chatflow.dto.SendMessageRequest;
+import com.hotelbooking.chatflow.realtime.ListVersions;
+import com.hotelbooking.chatflow.realtime.ListVersions.ListKind;
 import com.hotelbooking.chatflow.service.MessageService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -17,6 +25,7 @@ import reactor.core.publisher.Mono;
 public class MessageController {
 
     private final MessageService messageService;
+    private final ListVersions listVersions;
 
     @PostMapping
     public Mono<ResponseEntity<MessageDto>> sendMessage(
@@ -27,15 +36,44 @@ public class MessageController {
     }
 
     @GetMapping("/conversations")
-    public Flux<ConversationDto> getConversations(@RequestHeader("X-User-Id") Long userId) {
-        return messageService.getConversations(userId);
+    public ResponseEntity<Flux<ConversationDto>> getConversations(
+            @RequestHeader("X-User-Id") Long userId,
+            @RequestHeader HttpHeaders headers) {
+        return listVersions.conditional(userId, ListKind.CONVERSATIONS, headers,
+                () -> messageService.getConversations(userId));
+    }
+
+    @GetMapping(value = "/conversations/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> streamConversations(@RequestHeader("X-User-Id") Long userId) {
+        return messageService.streamConversations(userId);
     }
 
     @GetMapping("/conversation/{friendId}")
     public Flux<MessageDto> getConversationMessages(
             @RequestHeader("X-User-Id") Long userId,
-            @PathVariable Long friendId) {
-        return messageService.getConversationMessages(userId, friendId);
+            @PathVariable Long friendId,
+            @RequestParam(required = false) MessageCursor before,
+            @RequestParam(required = false) MessageCursor after,
+            @RequestParam(defaultValue = "50") int limit) {
+        return messageService.getConversationMessages(userId, friendId, before, after, limit);
+    }
+
+    @GetMapping(value = "/conversation/{friendId}", params = "view=compact")
+    public Mono<MessagePageDto> getConversationPage(
+            @RequestHeader("X-User-Id") Long userId,
+            @PathVariable Long friendId,
+            @RequestParam(required = false) MessageCursor before,
+            @RequestParam(required = false) MessageCursor after,
+            @RequestParam(defaultValue = "50") int limit) {
+        return messageService.getConversationPage(userId, friendId, before, after, limit);
+    }
+
+    @PutMapping("/read")
+    public Mono<ResponseEntity<Void>> markAsRead(
+            @RequestHeader("X-User-Id") Long userId,
+            @Valid @RequestBody MarkReadRequest request) {
+        return messageService.markAsRead(userId, request)
+                .then(Mono.just(ResponseEntity.ok().<Void>build()));
     }
 
     @PutMapping("/{messageId}/read")
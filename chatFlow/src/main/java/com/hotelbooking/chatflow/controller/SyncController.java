@@ -0,0 +1,25 @@
+package com.hotelbooking.chatflow.controller;
+
+import com.hotelbooking.chatflow.dto.SyncResponse;
+import com.hotelbooking.chatflow.service.SyncService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+@RestController
+@RequestMapping("/api/sync")
+@RequiredArgsConstructor
+public class SyncController {
+
+    private final SyncService syncService;
+
+    @GetMapping
+    public Mono<ResponseEntity<SyncResponse>> sync(
+            @RequestHeader("X-User-Id") Long userId,
+            @RequestParam(required = false) Long since,
+            @RequestParam(defaultValue = "200") int limit) {
+        return syncService.sync(userId, since, limit)
+                .map(ResponseEntity::ok);
+    }
+}
@@ -0,0 +1,33 @@
+package com.hotelbooking.chatflow.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatEvent {
+    public static final String MESSAGE_CREATED = "message.created";
+    public static final String CONVERSATIONS_SNAPSHOT = "conversations.snapshot";
+    public static final String CONVERSATION_UPDATED = "conversation.updated";
+    public static final String PRESENCE_CHANGED = "presence.changed";
+    public static final String FRIENDSHIP_UPDATED = "friendship.updated";
+    public static final String FRIENDSHIP_REMOVED = "friendship.removed";
+
+    private String type;
+    private Object payload;
+    private LocalDateTime timestamp;
+
+    public static ChatEvent of(String type, Object payload) {
+        return ChatEvent.builder()
+                .type(type)
+                .payload(payload)
+                .timestamp(LocalDateTime.now())
+                .build();
+    }
+}
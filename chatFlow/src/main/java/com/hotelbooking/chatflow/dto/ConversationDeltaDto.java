@@ -0,0 +1,28 @@
+package com.hotelbooking.chatflow.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Change to a single entry of a user's conversation list. Fields left null are unchanged.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ConversationDeltaDto {
+    private Long friendId;
+    private UserDto friend;
+    private MessageDto lastMessage;
+    private Integer unreadCount;
+    private Long lastReadMessageId;
+    private LocalDateTime lastReadMessageAt;
+    private Boolean isOnline;
+    private LocalDateTime lastSeen;
+}
@@ -0,0 +1,21 @@
+package com.hotelbooking.chatflow.dto;
+
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MarkReadRequest {
+    
+    // Received messages to mark read; each conversation's watermark moves to the newest of them
+    @Size(max = 500, message = "At most 500 message ids can be marked read at once")
+    private List<Long> messageIds;
+    
+    // Marks this whole conversation read when no message ids are given
+    private Long friendId;
+}
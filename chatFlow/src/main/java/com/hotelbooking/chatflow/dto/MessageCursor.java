@@ -0,0 +1,41 @@
+package com.hotelbooking.chatflow.dto;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Position of a message in a conversation, written {@code <createdAt>,<id>} in query strings
+ * with the message's own {@code createdAt} and {@code id}. Carrying the timestamp lets the
+ * page query seek straight to it in the partitions it can be in.
+ */
+public record MessageCursor(LocalDateTime createdAt, Long id) {
+
+    public MessageCursor {
+        if (createdAt == null || id == null) {
+            throw new IllegalArgumentException("A message cursor needs both createdAt and id");
+        }
+    }
+
+    // Used by Spring to convert request parameters
+    public static MessageCursor valueOf(String value) {
+        int comma = value.lastIndexOf(',');
+        if (comma < 0) {
+            throw new IllegalArgumentException("Expected <createdAt>,<id> but got " + value);
+        }
+        try {
+            return new MessageCursor(LocalDateTime.parse(value.substring(0, comma).trim()),
+                    Long.parseLong(value.substring(comma + 1).trim()));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Expected <createdAt>,<id> but got " + value, e);
+        }
+    }
+
+    public static MessageCursor of(MessageDto message) {
+        return new MessageCursor(message.getCreatedAt(), message.getId());
+    }
+
+    @Override
+    public String toString() {
+        return createdAt + "," + id;
+    }
+}
@@ -1,5 +1,6 @@
 package com.hotelbooking.chatflow.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -19,6 +20,9 @@ public class MessageDto {
     private String messageType;
     private Boolean isRead;
     private LocalDateTime createdAt;
+    // Left out of compact message pages, which list users separately
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private UserDto sender;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private UserDto receiver;
 }
@@ -0,0 +1,22 @@
+package com.hotelbooking.chatflow.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A page of messages without embedded profiles; senders and receivers are looked up in
+ * {@code users}, which holds each participant once.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MessagePageDto {
+    private List<MessageDto> messages;
+    private Map<Long, UserDto> users;
+}
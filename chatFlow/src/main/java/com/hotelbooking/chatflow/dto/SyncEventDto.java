@@ -0,0 +1,21 @@
+package com.hotelbooking.chatflow.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SyncEventDto {
+    private Long seq;
+    private String type;
+    // A tree rather than the stored JSON text, so it encodes as Smile too
+    private JsonNode payload;
+    private LocalDateTime createdAt;
+}
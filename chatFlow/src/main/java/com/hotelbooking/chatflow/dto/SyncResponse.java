@@ -0,0 +1,21 @@
+package com.hotelbooking.chatflow.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SyncResponse {
+    private List<SyncEventDto> events;
+    // Pass back as ?since= on the next call
+    private Long nextSince;
+    private Boolean hasMore;
+    // Events after the given since were deleted by retention: reload everything, then sync from nextSince
+    private Boolean resyncRequired;
+}
@@ -0,0 +1,31 @@
+package com.hotelbooking.chatflow.entity;
+
+import org.springframework.data.relational.core.mapping.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("conversation_summaries")
+public class ConversationSummary {
+    
+    // Keyed by (userId, peerId); rows are only written through ConversationSummaryRepository queries
+    private Long userId;
+    private Long peerId;
+    private Long lastMessageId;
+    private String lastMessagePreview;
+    private Long lastMessageSenderId;
+    private LocalDateTime lastMessageAt;
+    private Integer unreadCount;
+    // Read watermark: messages from peerId up to this one, in (createdAt, id) order, have been read by userId
+    private Long lastReadMessageId;
+    private LocalDateTime lastReadMessageAt;
+    private LocalDateTime lastReadAt;
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,24 @@
+package com.hotelbooking.chatflow.entity;
+
+import org.springframework.data.relational.core.mapping.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("user_events")
+public class UserEvent {
+    
+    // Keyed by (userId, seq); rows are only written through UserEventRepository.append
+    private Long userId;
+    private Long seq;
+    private String type;
+    private String payload; // JSON
+    private LocalDateTime createdAt;
+}
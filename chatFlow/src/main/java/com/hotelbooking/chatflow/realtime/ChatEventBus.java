@@ -0,0 +1,80 @@
+package com.hotelbooking.chatflow.realtime;
+
+import com.hotelbooking.chatflow.dto.ChatEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fans out events to the sessions a user currently has open on this node.
+ * Every subscription gets its own bounded buffer; a subscriber that falls
+ * behind is terminated with an overflow error and is expected to reconnect
+ * and resync over REST.
+ */
+@Slf4j
+@Component
+public class ChatEventBus {
+
+    private final Map<Long, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+    @Value("${chatflow.realtime.session-buffer-size:256}")
+    private int sessionBufferSize;
+
+    public Flux<ChatEvent> subscribe(Long userId) {
+        return Flux.defer(() -> {
+            Subscriber subscriber = new Subscriber(sessionBufferSize);
+            subscribers.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+            return subscriber.sink.asFlux()
+                    .doFinally(signal -> unsubscribe(userId, subscriber));
+        });
+    }
+
+    public void publish(Long userId, ChatEvent event) {
+        Set<Subscriber> userSubscribers = subscribers.get(userId);
+        if (userSubscribers == null) {
+            return;
+        }
+        for (Subscriber subscriber : userSubscribers) {
+            if (!subscriber.emit(event)) {
+                log.debug("Dropping slow subscriber of user {}: buffer of {} events is full", userId, sessionBufferSize);
+            }
+        }
+    }
+
+    public boolean isConnected(Long userId) {
+        Set<Subscriber> userSubscribers = subscribers.get(userId);
+        return userSubscribers != null && !userSubscribers.isEmpty();
+    }
+
+    private void unsubscribe(Long userId, Subscriber subscriber) {
+        subscribers.computeIfPresent(userId, (id, set) -> {
+            set.remove(subscriber);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static final class Subscriber {
+        private final Sinks.Many<ChatEvent> sink;
+
+        private Subscriber(int bufferSize) {
+            this.sink = Sinks.many().unicast().onBackpressureBuffer(new ArrayBlockingQueue<>(bufferSize));
+        }
+
+        // Publishers run on arbitrary threads, so emissions into one sink are serialized here
+        private synchronized boolean emit(ChatEvent event) {
+            Sinks.EmitResult result = sink.tryEmitNext(event);
+            if (result == Sinks.EmitResult.FAIL_OVERFLOW) {
+                sink.tryEmitError(new IllegalStateException("Session buffer overflow"));
+                return false;
+            }
+            return result.isSuccess();
+        }
+    }
+}
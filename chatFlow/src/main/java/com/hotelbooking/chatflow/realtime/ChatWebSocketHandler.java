@@ -0,0 +1,49 @@
+package com.hotelbooking.chatflow.realtime;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hotelbooking.chatflow.dto.ChatEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Component
+@RequiredArgsConstructor
+public class ChatWebSocketHandler implements WebSocketHandler {
+
+    private final ChatEventBus eventBus;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public Mono<Void> handle(WebSocketSession session) {
+        // X-User-Id is set by JwtAuthenticationFilter during the handshake
+        String userIdHeader = session.getHandshakeInfo().getHeaders().getFirst("X-User-Id");
+        if (userIdHeader == null) {
+            return session.close(CloseStatus.POLICY_VIOLATION);
+        }
+        Long userId = Long.valueOf(userIdHeader);
+
+        Flux<WebSocketMessage> events = eventBus.subscribe(userId)
+                .map(event -> session.textMessage(toJson(event)));
+
+        Mono<Void> input = session.receive().then();
+        Mono<Void> output = session.send(events)
+                .onErrorResume(e -> session.close(CloseStatus.SERVICE_OVERLOAD));
+
+        return Mono.firstWithSignal(input, output);
+    }
+
+    private String toJson(ChatEvent event) {
+        try {
+            return objectMapper.writeValueAsString(event);
+        } catch (JsonProcessingException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+}
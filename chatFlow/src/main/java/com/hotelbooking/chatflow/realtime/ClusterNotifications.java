@@ -0,0 +1,163 @@
+package com.hotelbooking.chatflow.realtime;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hotelbooking.chatflow.dto.ChatEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.postgresql.PostgresqlConnectionFactory;
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Wrapped;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Relays realtime changes between instances over Postgres LISTEN/NOTIFY, so a user
+ * connected to one node sees writes handled by another without a separate broker.
+ * Writers call {@link #publish} inside their transaction: Postgres only delivers the
+ * notification once it commits, and drops it on rollback. Payloads carry ids only,
+ * well under the 8000 byte NOTIFY limit; receivers load whatever they need to publish.
+ * <p>
+ * Each node listens on one dedicated connection opened straight from the driver, not
+ * borrowed from the pool. Notifications sent while it is reconnecting are lost; clients
+ * catch up through sync the same way they do after their own reconnects.
+ */
+@Slf4j
+@Component
+public class ClusterNotifications {
+
+    private static final String CHANNEL = "chatflow_events";
+    private static final String NOTIFICATIONS_COUNTER = "chatflow.cluster.notifications";
+
+    private final DatabaseClient databaseClient;
+    private final ConnectionFactory connectionFactory;
+    private final ObjectMapper objectMapper;
+    private final Counter sent;
+    private final Counter received;
+    private final String nodeId = UUID.randomUUID().toString().substring(0, 8);
+
+    @Value("${chatflow.cluster.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * A change committed on some node. {@code type} is a {@link com.hotelbooking.chatflow.dto.ChatEvent}
+     * type; for messages {@code userId} is the sender, {@code peerId} the receiver and
+     * {@code messageId} and {@code messageAt} the message's key, for read state {@code userId}
+     * is the reader, for friendships they are the two users and for presence {@code userId} is
+     * the user and {@code online} their new state.
+     */
+    public record ClusterEvent(String node, String type, Long userId, Long peerId, Long messageId,
+                               LocalDateTime messageAt, Boolean online) {
+    }
+
+    // The pool itself rather than the timed factory in front of it, which hides the driver
+    public ClusterNotifications(DatabaseClient databaseClient, ConnectionPool connectionPool,
+                                ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.databaseClient = databaseClient;
+        this.connectionFactory = connectionPool;
+        this.objectMapper = objectMapper;
+        this.sent = meterRegistry.counter(NOTIFICATIONS_COUNTER, "direction", "sent");
+        this.received = meterRegistry.counter(NOTIFICATIONS_COUNTER, "direction", "received");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Mono<Void> publish(String type, Long userId, Long peerId) {
+        return publishAll(List.of(new ClusterEvent(nodeId, type, userId, peerId, null, null, null)));
+    }
+
+    /**
+     * A new message from this node, for {@link #publishAll}.
+     */
+    public ClusterEvent messageEvent(Long senderId, Long receiverId, Long messageId, LocalDateTime messageAt) {
+        return new ClusterEvent(nodeId, ChatEvent.MESSAGE_CREATED, senderId, receiverId, messageId, messageAt, null);
+    }
+
+    public Mono<Void> publishPresence(Long userId, boolean online) {
+        return publishAll(List.of(new ClusterEvent(nodeId, ChatEvent.PRESENCE_CHANGED, userId, null, null, null, online)));
+    }
+
+    /**
+     * Sends one notification per event, all in one statement.
+     */
+    public Mono<Void> publishAll(List<ClusterEvent> events) {
+        if (!enabled || events.isEmpty()) {
+            return Mono.empty();
+        }
+        return Flux.fromIterable(events)
+                .concatMap(event -> Mono.fromCallable(() -> objectMapper.writeValueAsString(event)))
+                .collectList()
+                .flatMap(payloads -> databaseClient
+                        .sql("SELECT pg_notify(:channel, payload) FROM UNNEST(CAST(:payloads AS TEXT[])) AS payload")
+                        .bind("channel", CHANNEL)
+                        .bind("payloads", payloads.toArray(String[]::new))
+                        .then())
+                .doOnSuccess(ignored -> sent.increment(events.size()));
+    }
+
+    /**
+     * Events published by other nodes. The LISTEN connection is opened on subscription,
+     * reopened with backoff whenever it fails, and closed on cancel.
+     */
+    public Flux<ClusterEvent> remoteEvents() {
+        PostgresqlConnectionFactory driver = unwrap(connectionFactory);
+        return Flux.usingWhen(driver.create(), this::listen, PostgresqlConnection::close)
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30))
+                        .transientErrors(true)
+                        .doBeforeRetry(signal -> log.warn("Lost the {} LISTEN connection, reconnecting",
+                                CHANNEL, signal.failure())))
+                .flatMap(this::parse)
+                .filter(event -> !nodeId.equals(event.node()))
+                .doOnNext(ignored -> received.increment());
+    }
+
+    private Flux<Notification> listen(PostgresqlConnection connection) {
+        return connection.createStatement("LISTEN " + CHANNEL)
+                .execute()
+                .flatMap(PostgresqlResult::getRowsUpdated)
+                .doOnComplete(() -> log.info("Listening for cluster events on {} as node {}", CHANNEL, nodeId))
+                .thenMany(connection.getNotifications())
+                // The notification stream completes when the server closes the connection
+                .concatWith(Mono.error(() -> new IllegalStateException("LISTEN connection closed")));
+    }
+
+    private Mono<ClusterEvent> parse(Notification notification) {
+        try {
+            return Mono.just(objectMapper.readValue(notification.getParameter(), ClusterEvent.class));
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring malformed cluster event: {}", notification.getParameter(), e);
+            return Mono.empty();
+        }
+    }
+
+    /**
+     * The driver's factory underneath the pool.
+     */
+    private static PostgresqlConnectionFactory unwrap(ConnectionFactory factory) {
+        Object current = factory;
+        while (!(current instanceof PostgresqlConnectionFactory) && current instanceof Wrapped<?> wrapped) {
+            current = wrapped.unwrap();
+        }
+        if (current instanceof PostgresqlConnectionFactory driver) {
+            return driver;
+        }
+        throw new IllegalStateException("Cluster notifications need a Postgres connection factory, found " + factory);
+    }
+}
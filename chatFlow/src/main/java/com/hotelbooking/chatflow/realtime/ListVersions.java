@@ -0,0 +1,109 @@
+package com.hotelbooking.chatflow.realtime;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Per-user change counters for the lists clients poll. Every write that can change a list
+ * bumps its counter after committing, and the counter becomes the list's ETag, so an
+ * unchanged list is answered with 304 without querying or serializing anything.
+ * Counters live in memory, in a bounded cache of recently active users. An evicted user
+ * simply gets new counters: each set is tagged with a number never handed out before, and
+ * the ETag carries it along with this node's start time, so tags issued before an eviction
+ * or a restart never match. Outcomes are counted in {@code chatflow.lists.requests}, the
+ * cache in {@code cache.*} metrics with {@code cache=list-versions}.
+ */
+@Component
+public class ListVersions {
+
+    public enum ListKind {
+        CONVERSATIONS, FRIENDS, PENDING_REQUESTS
+    }
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong generations = new AtomicLong();
+    private final Cache<Long, Versions> versions;
+    private final Map<ListKind, Counter> notModified = new EnumMap<>(ListKind.class);
+    private final Map<ListKind, Counter> modified = new EnumMap<>(ListKind.class);
+
+    private record Versions(long generation, AtomicLongArray counters) {
+    }
+
+    public ListVersions(MeterRegistry meterRegistry,
+                        @Value("${chatflow.list-versions.maximum-size:100000}") long maximumSize,
+                        @Value("${chatflow.list-versions.idle-ttl-ms:1800000}") long idleTtlMs) {
+        this.versions = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(Duration.ofMillis(idleTtlMs))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, versions, "list-versions");
+        for (ListKind kind : ListKind.values()) {
+            String list = kind.name().toLowerCase();
+            notModified.put(kind, meterRegistry.counter("chatflow.lists.requests", "list", list, "result", "not_modified"));
+            modified.put(kind, meterRegistry.counter("chatflow.lists.requests", "list", list, "result", "modified"));
+        }
+    }
+
+    public void bump(Long userId, ListKind... kinds) {
+        AtomicLongArray counters = versionsOf(userId).counters();
+        for (ListKind kind : kinds) {
+            counters.incrementAndGet(kind.ordinal());
+        }
+    }
+
+    public String etag(Long userId, ListKind kind) {
+        // Created here too, so a tag is never issued for counters that are not kept
+        Versions userVersions = versionsOf(userId);
+        return "\"" + epoch + "-" + Long.toString(userVersions.generation(), 36)
+                + "-" + userVersions.counters().get(kind.ordinal()) + "\"";
+    }
+
+    private Versions versionsOf(Long userId) {
+        return versions.get(userId, id ->
+                new Versions(generations.incrementAndGet(), new AtomicLongArray(ListKind.values().length)));
+    }
+
+    /**
+     * Answers 304 when the request's If-None-Match still names the current version;
+     * otherwise returns the list produced by {@code body}, tagged with that version.
+     */
+    public <T> ResponseEntity<Flux<T>> conditional(Long userId, ListKind kind, HttpHeaders requestHeaders,
+                                                   Supplier<Flux<T>> body) {
+        // Read the version before the list so a concurrent write can only make the tag older
+        String etag = etag(userId, kind);
+        if (matches(requestHeaders.getIfNoneMatch(), etag)) {
+            notModified.get(kind).increment();
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        modified.get(kind).increment();
+        return ResponseEntity.ok().eTag(etag).body(body.get());
+    }
+
+    private boolean matches(List<String> ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch) {
+            String tag = candidate.startsWith("W/") ? candidate.substring(2) : candidate;
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,131 @@
+package com.hotelbooking.chatflow.realtime;
+
+import com.hotelbooking.chatflow.service.UserProfileCache;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Authoritative online/last-seen state for users seen by this node. Changes are
+ * kept in memory and written back to {@code users} in batched UPDATEs. Online users
+ * stay in memory; offline entries are dropped once the row holds them, after which
+ * presence is read from the (reloaded) user row like any other field.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PresenceRegistry {
+
+    private static final String FLUSH_SQL =
+            "UPDATE users AS u SET is_online = v.is_online, last_seen = v.last_seen, updated_at = v.last_seen " +
+            "FROM UNNEST(CAST(:ids AS BIGINT[]), CAST(:online AS BOOLEAN[]), CAST(:lastSeen AS TIMESTAMP[])) " +
+            "AS v(id, is_online, last_seen) " +
+            "WHERE u.id = v.id";
+
+    private final DatabaseClient databaseClient;
+    private final UserProfileCache userProfileCache;
+
+    private final Map<Long, Presence> presences = new ConcurrentHashMap<>();
+    private final Map<Long, Presence> dirty = new ConcurrentHashMap<>();
+
+    @Value("${chatflow.presence.flush-batch-size:1000}")
+    private int flushBatchSize;
+
+    @Value("${chatflow.presence.offline-retention-ms:30000}")
+    private long offlineRetentionMs;
+
+    public record Presence(boolean online, LocalDateTime lastSeen) {
+    }
+
+    /**
+     * Records the user's presence and returns the previous one, or null if this node had none.
+     */
+    public Presence update(Long userId, Presence presence) {
+        Presence previous = presences.put(userId, presence);
+        dirty.put(userId, presence);
+        return previous;
+    }
+
+    /**
+     * Records presence reported by another node, which writes it back itself. Returns the
+     * previous presence, or null if this node had none.
+     */
+    public Presence remember(Long userId, Presence presence) {
+        return presences.put(userId, presence);
+    }
+
+    public Presence get(Long userId) {
+        return presences.get(userId);
+    }
+
+    // Scheduling calls this once and resubscribes the result, so the snapshot is taken per subscription
+    @Scheduled(fixedDelayString = "${chatflow.presence.flush-interval-ms:5000}")
+    public Mono<Void> flush() {
+        return Flux.defer(() -> Flux.fromIterable(new ArrayList<>(dirty.entrySet())))
+                .buffer(flushBatchSize)
+                .concatMap(this::writeBatch)
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("Failed to flush presence, will retry on next run", e);
+                    return Mono.empty();
+                })
+                .then(Mono.fromRunnable(this::pruneOffline));
+    }
+
+    /**
+     * Drops offline entries that are no longer dirty. They are kept for a while after going
+     * offline because presence remembered from another node is written back by that node,
+     * on its own schedule; the cached row is evicted so the next read sees the written value.
+     */
+    private void pruneOffline() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(Duration.ofMillis(offlineRetentionMs));
+        presences.forEach((userId, presence) -> {
+            if (!presence.online() && presence.lastSeen().isBefore(cutoff) && !dirty.containsKey(userId)
+                    && presences.remove(userId, presence)) {
+                userProfileCache.invalidate(userId);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush().block(Duration.ofSeconds(10));
+    }
+
+    private Mono<Void> writeBatch(List<Map.Entry<Long, Presence>> batch) {
+        Long[] ids = new Long[batch.size()];
+        Boolean[] online = new Boolean[batch.size()];
+        LocalDateTime[] lastSeen = new LocalDateTime[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            ids[i] = batch.get(i).getKey();
+            online[i] = batch.get(i).getValue().online();
+            lastSeen[i] = batch.get(i).getValue().lastSeen();
+        }
+
+        return databaseClient.sql(FLUSH_SQL)
+                .bind("ids", ids)
+                .bind("online", online)
+                .bind("lastSeen", lastSeen)
+                .fetch()
+                .rowsUpdated()
+                // Entries updated again while the batch was in flight stay dirty
+                .doOnSuccess(updated -> batch.forEach(entry -> {
+                    dirty.remove(entry.getKey(), entry.getValue());
+                    userProfileCache.invalidate(entry.getKey());
+                }))
+                .then();
+    }
+}
@@ -0,0 +1,97 @@
+package com.hotelbooking.chatflow.repository;
+
+import com.hotelbooking.chatflow.entity.ConversationSummary;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+@org.springframework.stereotype.Repository
+public interface ConversationSummaryRepository extends Repository<ConversationSummary, Long> {
+    
+    @Query("SELECT * FROM conversation_summaries WHERE user_id = :userId ORDER BY last_message_at DESC")
+    Flux<ConversationSummary> findByUserId(Long userId);
+    
+    /**
+     * Records new messages in both participants' summaries: one row per (user, peer) with the
+     * newest of its messages as the last message and the peer's messages past the read watermark
+     * added to the unread count. Rows are written in (user_id, peer_id) order, so concurrent
+     * writers lock them in the same order, and a last message is only replaced by a newer one.
+     */
+    @Query("WITH m AS (" +
+           "    SELECT * FROM UNNEST(CAST(:messageIds AS BIGINT[]), CAST(:senderIds AS BIGINT[]), " +
+           "    CAST(:receiverIds AS BIGINT[]), CAST(:contents AS TEXT[]), CAST(:createdAt AS TIMESTAMP[])) " +
+           "    AS m(id, sender_id, receiver_id, content, created_at)), " +
+           "sides AS (" +
+           "    SELECT sender_id AS user_id, receiver_id AS peer_id, id, content, sender_id, created_at, 0 AS unread FROM m " +
+           "    UNION ALL " +
+           "    SELECT receiver_id, sender_id, id, content, sender_id, created_at, 1 FROM m), " +
+           "rows AS (" +
+           "    SELECT DISTINCT ON (s.user_id, s.peer_id) s.user_id, s.peer_id, s.id, s.content, s.sender_id, s.created_at, " +
+           "    COALESCE(SUM(s.unread) FILTER (WHERE (s.created_at, s.id) > " + READ_WATERMARK + ") " +
+           "    OVER (PARTITION BY s.user_id, s.peer_id), 0) AS unread " +
+           "    FROM sides s LEFT JOIN conversation_summaries cs ON cs.user_id = s.user_id AND cs.peer_id = s.peer_id " +
+           "    ORDER BY s.user_id, s.peer_id, s.created_at DESC, s.id DESC) " +
+           "INSERT INTO conversation_summaries " +
+           "(user_id, peer_id, last_message_id, last_message_preview, last_message_sender_id, last_message_at, unread_count, last_read_message_id, updated_at) " +
+           "SELECT user_id, peer_id, id, LEFT(content, 200), sender_id, created_at, unread, 0, NOW() " +
+           "FROM rows ORDER BY user_id, peer_id " +
+           "ON CONFLICT (user_id, peer_id) DO UPDATE SET " +
+           "last_message_id = CASE WHEN " + IS_NEWER + " THEN EXCLUDED.last_message_id ELSE conversation_summaries.last_message_id END, " +
+           "last_message_preview = CASE WHEN " + IS_NEWER + " THEN EXCLUDED.last_message_preview ELSE conversation_summaries.last_message_preview END, " +
+           "last_message_sender_id = CASE WHEN " + IS_NEWER + " THEN EXCLUDED.last_message_sender_id ELSE conversation_summaries.last_message_sender_id END, " +
+           "last_message_at = CASE WHEN " + IS_NEWER + " THEN EXCLUDED.last_message_at ELSE conversation_summaries.last_message_at END, " +
+           "unread_count = conversation_summaries.unread_count + EXCLUDED.unread_count, " +
+           "updated_at = NOW() " +
+           "RETURNING *")
+    Flux<ConversationSummary> recordMessages(Long[] messageIds, Long[] senderIds, Long[] receiverIds,
+                                             String[] contents, LocalDateTime[] createdAt);
+    
+    String IS_NEWER = "(EXCLUDED.last_message_at, EXCLUDED.last_message_id) >= " +
+            "(COALESCE(conversation_summaries.last_message_at, '-infinity'), COALESCE(conversation_summaries.last_message_id, 0))";
+    
+    /**
+     * The read watermark of summary {@code cs} as a (created_at, id) tuple, the order messages are
+     * paged and counted in; a summary nothing has been read in sorts before every message.
+     */
+    String READ_WATERMARK = "(COALESCE(cs.last_read_message_at, '-infinity'), COALESCE(cs.last_read_message_id, 0))";
+    
+    String LAST_MESSAGE_UNREAD = "(cs.last_message_at, cs.last_message_id) > " + READ_WATERMARK;
+    
+    @Query("SELECT * FROM conversation_summaries " +
+           "WHERE (user_id = :userId AND peer_id = :friendId) OR (user_id = :friendId AND peer_id = :userId)")
+    Flux<ConversationSummary> findConversation(Long userId, Long friendId);
+    
+    /**
+     * Moves the watermark to the newest message of the conversation. Rows with nothing
+     * unread are left alone, so repeated calls do not write.
+     */
+    @Query("UPDATE conversation_summaries cs SET " +
+           "last_read_message_id = CASE WHEN " + LAST_MESSAGE_UNREAD + " THEN cs.last_message_id ELSE cs.last_read_message_id END, " +
+           "last_read_message_at = CASE WHEN " + LAST_MESSAGE_UNREAD + " THEN cs.last_message_at ELSE cs.last_read_message_at END, " +
+           "last_read_at = NOW(), unread_count = 0, updated_at = NOW() " +
+           "WHERE cs.user_id = :userId AND cs.peer_id = :peerId AND cs.unread_count > 0 RETURNING cs.*")
+    Mono<ConversationSummary> markConversationRead(Long userId, Long peerId);
+    
+    /**
+     * Moves the watermark of every conversation touched by {@code messageIds} forward to the
+     * newest of those messages received by {@code userId}, recounting what is still unread
+     * after it. Watermarks never move backwards.
+     */
+    @Query("UPDATE conversation_summaries cs SET " +
+           "last_read_message_id = w.id, last_read_message_at = w.created_at, last_read_at = NOW(), updated_at = NOW(), " +
+           "unread_count = (SELECT COUNT(*) FROM messages u " +
+           "    WHERE LEAST(u.sender_id, u.receiver_id) = LEAST(cs.user_id, cs.peer_id) " +
+           "    AND GREATEST(u.sender_id, u.receiver_id) = GREATEST(cs.user_id, cs.peer_id) " +
+           "    AND (u.created_at, u.id) > (w.created_at, w.id) AND u.sender_id = cs.peer_id) " +
+           "FROM (SELECT DISTINCT ON (sender_id) id, sender_id, created_at FROM messages " +
+           "    WHERE id IN (:messageIds) AND receiver_id = :userId " +
+           "    ORDER BY sender_id, created_at DESC, id DESC) w " +
+           "WHERE cs.user_id = :userId AND cs.peer_id = w.sender_id " +
+           "AND " + READ_WATERMARK + " < (w.created_at, w.id) " +
+           "RETURNING cs.*")
+    Flux<ConversationSummary> advanceReadWatermarks(Long userId, Collection<Long> messageIds);
+}
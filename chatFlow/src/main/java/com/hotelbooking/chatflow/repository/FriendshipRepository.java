@@ -1,6 +1,7 @@
 package com.hotelbooking.chatflow.repository;
 
 import com.hotelbooking.chatflow.entity.Friendship;
+import org.springframework.data.r2dbc.repository.Modifying;
 import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 import org.springframework.stereotype.Repository;
@@ -10,21 +11,32 @@ import reactor.core.publisher.Mono;
 @Repository
 public interface FriendshipRepository extends R2dbcRepository<Friendship, Long> {
     
-    @Query("SELECT * FROM friendships WHERE (user_id = :userId OR friend_id = :userId) AND status = :status ORDER BY updated_at DESC")
-    Flux<Friendship> findByUserIdAndStatus(Long userId, String status);
-    
-    @Query("SELECT * FROM friendships WHERE (user_id = :userId OR friend_id = :userId) AND status = 'PENDING' AND requester_id != :userId ORDER BY created_at DESC")
-    Flux<Friendship> findPendingRequestsForUser(Long userId);
+    @Query("SELECT f.* FROM user_friends uf JOIN friendships f ON f.id = uf.friendship_id " +
+           "WHERE uf.user_id = :userId")
+    Flux<Friendship> findAllForUser(Long userId);
     
-    @Query("SELECT * FROM friendships WHERE " +
-           "((user_id = :userId AND friend_id = :friendId) OR (user_id = :friendId AND friend_id = :userId))")
-    Mono<Friendship> findByUserIdAndFriendId(Long userId, Long friendId);
+    @Query("SELECT f.* FROM user_friends uf JOIN friendships f ON f.id = uf.friendship_id " +
+           "WHERE uf.user_id = :userId AND uf.status = :status ORDER BY uf.updated_at DESC")
+    Flux<Friendship> findByUserIdAndStatus(Long userId, String status);
     
+    // Edges are stored as (lower id, higher id), so the pair is a single unique-index seek
     @Query("SELECT * FROM friendships WHERE " +
-           "((user_id = :userId AND friend_id = :friendId) OR (user_id = :friendId AND friend_id = :userId)) " +
-           "AND status = :status")
+           "user_id = LEAST(:userId, :friendId) AND friend_id = GREATEST(:userId, :friendId) AND status = :status")
     Mono<Friendship> findByUserIdAndFriendIdAndStatus(Long userId, Long friendId, String status);
     
+    /**
+     * Copies the friendship into both users' rows of the user_friends projection. Deletes
+     * need no counterpart: projection rows cascade with the friendship.
+     */
+    @Modifying
+    @Query("INSERT INTO user_friends (user_id, friend_id, friendship_id, status, updated_at) " +
+           "SELECT user_id, friend_id, id, status, updated_at FROM friendships WHERE id = :friendshipId " +
+           "UNION ALL " +
+           "SELECT friend_id, user_id, id, status, updated_at FROM friendships WHERE id = :friendshipId " +
+           "ON CONFLICT (user_id, friend_id) DO UPDATE SET " +
+           "friendship_id = EXCLUDED.friendship_id, status = EXCLUDED.status, updated_at = EXCLUDED.updated_at")
+    Mono<Integer> syncUserFriends(Long friendshipId);
+    
     @Query("DELETE FROM friendships WHERE id = :id")
     Mono<Void> deleteById(Long id);
 }
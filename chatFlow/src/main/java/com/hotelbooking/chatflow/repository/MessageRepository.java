@@ -5,15 +5,37 @@ import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
 
 @Repository
 public interface MessageRepository extends R2dbcRepository<Message, Long> {
-    @Query("SELECT * FROM messages WHERE (sender_id = :userId OR receiver_id = :userId) ORDER BY created_at DESC")
-    Flux<Message> findByUserIdOrderByCreatedAtDesc(Long userId);
-    
-    @Query("SELECT * FROM messages WHERE " +
-           "((sender_id = :userId AND receiver_id = :friendId) OR " +
-           "(sender_id = :friendId AND receiver_id = :userId)) " +
-           "ORDER BY created_at ASC")
+    // Conversation queries match on (LEAST, GREATEST) of the two participants so they
+    // can seek idx_messages_conversation instead of OR-ing the sender/receiver indexes
+    String CONVERSATION = "LEAST(sender_id, receiver_id) = LEAST(:userId, :friendId) " +
+                          "AND GREATEST(sender_id, receiver_id) = GREATEST(:userId, :friendId)";
+
+    @Query("SELECT * FROM messages WHERE " + CONVERSATION + " ORDER BY created_at ASC, id ASC")
     Flux<Message> findConversationMessages(Long userId, Long friendId);
+    
+    @Query("SELECT * FROM messages WHERE " + CONVERSATION +
+           " ORDER BY created_at DESC, id DESC LIMIT :limit")
+    Flux<Message> findLatestConversationMessages(Long userId, Long friendId, int limit);
+    
+    // The plain created_at bounds repeat the row comparisons so the planner can prune partitions,
+    // which it does not do for row comparisons alone
+    @Query("SELECT * FROM messages WHERE " + CONVERSATION +
+           " AND created_at <= :beforeAt AND (created_at, id) < (:beforeAt, :beforeId)" +
+           " ORDER BY created_at DESC, id DESC LIMIT :limit")
+    Flux<Message> findConversationMessagesBefore(Long userId, Long friendId, LocalDateTime beforeAt, Long beforeId, int limit);
+    
+    @Query("SELECT * FROM messages WHERE " + CONVERSATION +
+           " AND created_at >= :afterAt AND (created_at, id) > (:afterAt, :afterId)" +
+           " ORDER BY created_at ASC, id ASC LIMIT :limit")
+    Flux<Message> findConversationMessagesAfter(Long userId, Long friendId, LocalDateTime afterAt, Long afterId, int limit);
+    
+    // Looked up by the full primary key, so only the message's own partition is probed
+    @Query("SELECT * FROM messages WHERE id = :id AND created_at = :createdAt")
+    Mono<Message> findByIdAndCreatedAt(Long id, LocalDateTime createdAt);
 }
@@ -0,0 +1,33 @@
+package com.hotelbooking.chatflow.repository;
+
+import com.hotelbooking.chatflow.entity.UserEvent;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@org.springframework.stereotype.Repository
+public interface UserEventRepository extends Repository<UserEvent, Long> {
+    
+    /**
+     * Appends an event under the user's next sequence number. The sequence row stays locked
+     * until the surrounding transaction ends, so a user's events commit in seq order.
+     */
+    @Query("WITH next AS (" +
+           "    INSERT INTO user_event_sequences (user_id, last_seq) VALUES (:userId, 1) " +
+           "    ON CONFLICT (user_id) DO UPDATE SET last_seq = user_event_sequences.last_seq + 1 " +
+           "    RETURNING last_seq) " +
+           "INSERT INTO user_events (user_id, seq, type, payload, created_at) " +
+           "SELECT :userId, last_seq, :type, :payload, NOW() FROM next " +
+           "RETURNING seq")
+    Mono<Long> append(Long userId, String type, String payload);
+    
+    @Query("SELECT * FROM user_events WHERE user_id = :userId AND seq > :since ORDER BY seq LIMIT :limit")
+    Flux<UserEvent> findAfter(Long userId, Long since, int limit);
+    
+    @Query("SELECT COALESCE((SELECT last_seq FROM user_event_sequences WHERE user_id = :userId), 0)")
+    Mono<Long> findLatestSeq(Long userId);
+    
+    @Query("SELECT COALESCE((SELECT pruned_seq FROM user_event_sequences WHERE user_id = :userId), 0)")
+    Mono<Long> findPrunedSeq(Long userId);
+}
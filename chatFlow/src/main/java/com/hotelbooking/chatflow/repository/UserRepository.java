@@ -1,14 +1,52 @@
 package com.hotelbooking.chatflow.repository;
 
 import com.hotelbooking.chatflow.entity.User;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.r2dbc.repository.R2dbcRepository;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Repository
 public interface UserRepository extends R2dbcRepository<User, Long> {
+    
+    // Search ranking: exact username, then username prefix, then full name prefix, then the rest
+    String SEARCH_RANK = "CASE WHEN LOWER(username) = :term THEN 0 " +
+            "WHEN LOWER(username) LIKE :prefix THEN 1 " +
+            "WHEN LOWER(full_name) LIKE :prefix THEN 2 ELSE 3 END";
+    
     Mono<User> findByEmail(String email);
     Mono<User> findByUsername(String username);
     Mono<Boolean> existsByEmail(String email);
     Mono<Boolean> existsByUsername(String username);
+    
+    /**
+     * Replaces the password hash only if it is still {@code currentHash}, so a rehash never
+     * overwrites a password changed in the meantime.
+     */
+    @Modifying
+    @Query("UPDATE users SET password = :newHash WHERE id = :id AND password = :currentHash")
+    Mono<Integer> replacePasswordHash(Long id, String currentHash, String newHash);
+    
+    /**
+     * Substring search over username, full name, email and phone number, served by the
+     * trigram indexes. {@code prefix} and {@code pattern} are lower-case, escaped
+     * {@code term%} and {@code %term%} LIKE patterns.
+     */
+    @Query("SELECT * FROM users WHERE id <> :excludedId AND (" +
+           "LOWER(username) LIKE :pattern OR LOWER(full_name) LIKE :pattern " +
+           "OR LOWER(email) LIKE :pattern OR phone_number LIKE :pattern) " +
+           "ORDER BY " + SEARCH_RANK + ", similarity(LOWER(username), :term) DESC, username " +
+           "LIMIT :limit")
+    Flux<User> searchByContaining(String term, String prefix, String pattern, Long excludedId, int limit);
+    
+    /**
+     * Username and full name prefix search for terms too short to produce trigrams.
+     */
+    @Query("SELECT * FROM users WHERE id <> :excludedId AND (" +
+           "LOWER(username) LIKE :prefix OR LOWER(full_name) LIKE :prefix) " +
+           "ORDER BY " + SEARCH_RANK + ", username " +
+           "LIMIT :limit")
+    Flux<User> searchByPrefix(String term, String prefix, Long excludedId, int limit);
 }
@@ -1,6 +1,7 @@
 package com.hotelbooking.chatflow.security;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.core.annotation.Order;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.stereotype.Component;
@@ -10,9 +11,16 @@ import org.springframework.web.server.WebFilterChain;
 import reactor.core.publisher.Mono;
 
 @Component
+@Order(JwtAuthenticationFilter.ORDER)
 @RequiredArgsConstructor
 public class JwtAuthenticationFilter implements WebFilter {
 
+    // Runs after Spring Security's filter chain and before filters that need X-User-Id
+    public static final int ORDER = 0;
+
+    // The verified user id, for filters that must not trust the X-User-Id header a client can send itself
+    public static final String USER_ID_ATTRIBUTE = JwtAuthenticationFilter.class.getName() + ".userId";
+
     private final JwtUtil jwtUtil;
 
     @Override
@@ -24,21 +32,19 @@ public class JwtAuthenticationFilter implements WebFilter {
             return chain.filter(exchange);
         }
 
-        String authHeader = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        String token = resolveToken(exchange);
         
-        if (authHeader != null && authHeader.startsWith("Bearer ")) {
-            String token = authHeader.substring(7);
-            
+        if (token != null) {
             try {
-                Long userId = jwtUtil.extractUserId(token);
-                String email = jwtUtil.extractEmail(token);
+                JwtUtil.VerifiedToken verified = jwtUtil.verify(token);
                 
-                if (userId != null && jwtUtil.validateToken(token, email)) {
+                if (verified.userId() != null && verified.email() != null) {
                     ServerHttpRequest mutatedRequest = exchange.getRequest().mutate()
-                            .header("X-User-Id", userId.toString())
-                            .header("X-User-Email", email)
+                            .header("X-User-Id", verified.userId().toString())
+                            .header("X-User-Email", verified.email())
                             .build();
                     
+                    exchange.getAttributes().put(USER_ID_ATTRIBUTE, verified.userId());
                     return chain.filter(exchange.mutate().request(mutatedRequest).build());
                 }
             } catch (Exception e) {
@@ -48,4 +54,17 @@ public class JwtAuthenticationFilter implements WebFilter {
         
         return chain.filter(exchange);
     }
+
+    private String resolveToken(ServerWebExchange exchange) {
+        String authHeader = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        if (authHeader != null && authHeader.startsWith("Bearer ")) {
+            return authHeader.substring(7);
+        }
+        
+        // Browsers cannot set headers on a WebSocket handshake, so the token may come as a query parameter
+        if (exchange.getRequest().getPath().value().startsWith("/ws/")) {
+            return exchange.getRequest().getQueryParams().getFirst("access_token");
+        }
+        return null;
+    }
 }
@@ -1,28 +1,62 @@
 package com.hotelbooking.chatflow.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class JwtUtil {
 
-    @Value("${jwt.secret}")
-    private String secret;
+    private final Long expiration;
+    private final SecretKey signingKey;
+    private final JwtParser parser;
+    // Tokens whose signature has already been checked, each kept until its own expiry
+    private final Cache<String, VerifiedToken> verifiedTokens;
+    // chatflow.jwt.verify: cache hits, full signature checks, and rejected tokens
+    private final Timer cachedVerifications;
+    private final Timer signatureVerifications;
+    private final Timer rejectedVerifications;
 
-    @Value("${jwt.expiration}")
-    private Long expiration;
+    public JwtUtil(@Value("${jwt.secret}") String secret,
+                   @Value("${jwt.expiration}") Long expiration,
+                   @Value("${chatflow.token-cache.maximum-size:100000}") long maximumSize,
+                   MeterRegistry meterRegistry) {
+        this.expiration = expiration;
+        this.signingKey = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        this.parser = Jwts.parser()
+                .verifyWith(signingKey)
+                .build();
+        this.verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(Expiry.<String, VerifiedToken>creating((token, verified) ->
+                        Duration.between(Instant.now(), verified.expiresAt())))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verifiedTokens, "verified-tokens");
+        this.cachedVerifications = meterRegistry.timer("chatflow.jwt.verify", "result", "cached");
+        this.signatureVerifications = meterRegistry.timer("chatflow.jwt.verify", "result", "verified");
+        this.rejectedVerifications = meterRegistry.timer("chatflow.jwt.verify", "result", "rejected");
+    }
 
-    private SecretKey getSigningKey() {
-        return Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+    public record VerifiedToken(Long userId, String email, Instant expiresAt) {
     }
 
     public String generateToken(String email, Long userId) {
@@ -40,32 +74,37 @@ public class JwtUtil {
                 .subject(subject)
                 .issuedAt(now)
                 .expiration(expiryDate)
-                .signWith(getSigningKey())
+                .signWith(signingKey)
                 .compact();
     }
 
-    public String extractEmail(String token) {
-        return extractAllClaims(token).getSubject();
-    }
-
-    public Long extractUserId(String token) {
-        return extractAllClaims(token).get("userId", Long.class);
-    }
-
-    public Boolean validateToken(String token, String email) {
-        final String extractedEmail = extractEmail(token);
-        return (extractedEmail.equals(email) && !isTokenExpired(token));
-    }
-
-    private Boolean isTokenExpired(String token) {
-        return extractAllClaims(token).getExpiration().before(new Date());
-    }
+    /**
+     * Verifies the token's signature and expiry once and returns its claims; repeat calls
+     * with the same token are answered from the cache until the token expires.
+     *
+     * @throws io.jsonwebtoken.JwtException if the token is malformed, forged or expired
+     */
+    public VerifiedToken verify(String token) {
+        long start = System.nanoTime();
+        VerifiedToken cached = verifiedTokens.getIfPresent(token);
+        if (cached != null && cached.expiresAt().isAfter(Instant.now())) {
+            cachedVerifications.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return cached;
+        }
 
-    private Claims extractAllClaims(String token) {
-        return Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+        Claims claims;
+        try {
+            claims = parser.parseSignedClaims(token).getPayload();
+        } catch (RuntimeException e) {
+            rejectedVerifications.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        VerifiedToken verified = new VerifiedToken(
+                claims.get("userId", Long.class),
+                claims.getSubject(),
+                claims.getExpiration().toInstant());
+        verifiedTokens.put(token, verified);
+        signatureVerifications.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return verified;
     }
 }
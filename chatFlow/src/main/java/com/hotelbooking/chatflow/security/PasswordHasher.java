@@ -0,0 +1,107 @@
+package com.hotelbooking.chatflow.security;
+
+import com.hotelbooking.chatflow.config.SchedulerMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs BCrypt on a dedicated scheduler so that a login burst cannot stall the Netty event
+ * loops. At most {@code threads} hashes run at once and at most {@code max-queued} wait for
+ * a thread; beyond that requests are shed with 503 instead of queueing ever longer.
+ * Publishes {@code chatflow.password.hash{operation}}, {@code chatflow.password.queue-wait},
+ * {@code chatflow.password.rejected} and {@code chatflow.password.rehashed}.
+ */
+@Component
+public class PasswordHasher {
+
+    private static final Pattern BCRYPT_COST = Pattern.compile("^\\$2[abxy]?\\$(\\d{2})\\$");
+
+    private final PasswordEncoder passwordEncoder;
+    private final int strength;
+    private final int maxInFlight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Scheduler scheduler;
+    private final Timer encodeTime;
+    private final Timer matchTime;
+    private final Timer queueWait;
+    private final Counter rejected;
+    private final Counter rehashed;
+
+    public PasswordHasher(PasswordEncoder passwordEncoder,
+                          MeterRegistry meterRegistry,
+                          @Value("${chatflow.password-hashing.bcrypt-strength:10}") int strength,
+                          @Value("${chatflow.password-hashing.threads:0}") int threads,
+                          @Value("${chatflow.password-hashing.max-queued:200}") int maxQueued) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.passwordEncoder = passwordEncoder;
+        this.strength = strength;
+        this.maxInFlight = poolSize + maxQueued;
+        this.scheduler = Schedulers.newParallel("password-hashing", poolSize, true);
+        this.encodeTime = meterRegistry.timer("chatflow.password.hash", "operation", "encode");
+        this.matchTime = meterRegistry.timer("chatflow.password.hash", "operation", "matches");
+        this.queueWait = meterRegistry.timer("chatflow.password.queue-wait");
+        this.rejected = meterRegistry.counter("chatflow.password.rejected");
+        this.rehashed = meterRegistry.counter("chatflow.password.rehashed");
+        new SchedulerMetrics(scheduler, "password-hashing").bindTo(meterRegistry);
+    }
+
+    public Mono<String> encode(String rawPassword) {
+        return submit(encodeTime, () -> passwordEncoder.encode(rawPassword));
+    }
+
+    public Mono<Boolean> matches(String rawPassword, String encodedPassword) {
+        return submit(matchTime, () -> passwordEncoder.matches(rawPassword, encodedPassword));
+    }
+
+    /**
+     * Rehashes {@code rawPassword} if {@code encodedPassword} was hashed with a different
+     * cost than the configured one, in either direction; empty if it is already current.
+     * Hashes in an unknown format are left alone.
+     */
+    public Mono<String> upgrade(String rawPassword, String encodedPassword) {
+        Matcher matcher = BCRYPT_COST.matcher(encodedPassword);
+        if (!matcher.find() || Integer.parseInt(matcher.group(1)) == strength) {
+            return Mono.empty();
+        }
+        return encode(rawPassword).doOnNext(hash -> rehashed.increment());
+    }
+
+    private <T> Mono<T> submit(Timer hashTime, Supplier<T> hash) {
+        return Mono.defer(() -> {
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                inFlight.decrementAndGet();
+                rejected.increment();
+                return Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "Too many sign-ins in progress, try again shortly"));
+            }
+            long queuedAt = System.nanoTime();
+            return Mono.fromCallable(() -> {
+                        queueWait.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+                        return hashTime.record(hash);
+                    })
+                    .subscribeOn(scheduler)
+                    .doFinally(signal -> inFlight.decrementAndGet());
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.dispose();
+    }
+}
@@ -0,0 +1,158 @@
+package com.hotelbooking.chatflow.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token-bucket limits per user and route, configured in {@link RateLimitProperties}. Runs
+ * after {@link JwtAuthenticationFilter} so requests are keyed by the user id of a verified
+ * token; requests without one are keyed by client address. Rejected requests get 429 with
+ * Retry-After and are counted in {@code chatflow.rate-limit.rejected{route}}.
+ */
+@Slf4j
+@Component
+@Order(JwtAuthenticationFilter.ORDER + 1)
+public class RateLimitFilter implements WebFilter {
+
+    private final boolean enabled;
+    private final List<LimitedRoute> routes;
+    private final Map<BucketKey, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public RateLimitFilter(RateLimitProperties properties, MeterRegistry meterRegistry) {
+        this.enabled = properties.enabled();
+        this.routes = properties.routes().entrySet().stream()
+                .map(entry -> new LimitedRoute(entry.getKey(), entry.getValue(), meterRegistry))
+                .toList();
+        meterRegistry.gaugeMapSize("chatflow.rate-limit.buckets", List.of(), buckets);
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!enabled) {
+            return chain.filter(exchange);
+        }
+        ServerHttpRequest request = exchange.getRequest();
+        LimitedRoute route = match(request);
+        if (route == null) {
+            return chain.filter(exchange);
+        }
+
+        Bucket bucket = buckets.computeIfAbsent(new BucketKey(route.name(), subject(exchange)),
+                key -> new Bucket());
+        long retryAfterNanos = bucket.tryAcquire(route, System.nanoTime());
+        if (retryAfterNanos == 0) {
+            return chain.filter(exchange);
+        }
+
+        route.rejected().increment();
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(retryAfterNanos + 999_999_999));
+        exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        return exchange.getResponse().setComplete();
+    }
+
+    /**
+     * Drops buckets that have refilled completely. A full bucket behaves exactly like a
+     * missing one, so eviction never changes a decision.
+     */
+    @Scheduled(fixedDelayString = "${chatflow.rate-limit.eviction-interval-ms:60000}")
+    public void evictIdleBuckets() {
+        long now = System.nanoTime();
+        int before = buckets.size();
+        buckets.values().removeIf(bucket -> bucket.isFull(now));
+        log.debug("Evicted {} idle rate-limit buckets, {} remain", before - buckets.size(), buckets.size());
+    }
+
+    private LimitedRoute match(ServerHttpRequest request) {
+        PathContainer path = request.getPath().pathWithinApplication();
+        for (LimitedRoute route : routes) {
+            if (route.matches(request.getMethod(), path)) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    private String subject(ServerWebExchange exchange) {
+        // Not the X-User-Id header: without a token it is whatever the client sent
+        Long userId = exchange.getAttribute(JwtAuthenticationFilter.USER_ID_ATTRIBUTE);
+        if (userId != null) {
+            return userId.toString();
+        }
+        InetSocketAddress remoteAddress = exchange.getRequest().getRemoteAddress();
+        return remoteAddress != null ? "ip:" + remoteAddress.getAddress().getHostAddress() : "ip:unknown";
+    }
+
+    private record BucketKey(String route, String subject) {
+    }
+
+    private record LimitedRoute(String name, HttpMethod method, PathPattern pattern,
+                                long emissionIntervalNanos, long burstNanos, Counter rejected) {
+
+        LimitedRoute(String name, RateLimitProperties.Route route, MeterRegistry meterRegistry) {
+            this(name, route.method(), PathPatternParser.defaultInstance.parse(route.path()),
+                    (long) (TimeUnit.SECONDS.toNanos(1) / route.refillPerSecond()),
+                    (long) (TimeUnit.SECONDS.toNanos(1) / route.refillPerSecond()) * route.capacity(),
+                    meterRegistry.counter("chatflow.rate-limit.rejected", "route", name));
+        }
+
+        boolean matches(HttpMethod requestMethod, PathContainer path) {
+            return (method == null || method.equals(requestMethod)) && pattern.matches(path);
+        }
+    }
+
+    /**
+     * Token bucket in its GCRA form: the whole state is the time at which the bucket will
+     * be full again, updated with a compare-and-set. Each request pushes that time one
+     * emission interval further; a request that would push it more than a full burst
+     * ahead of now is refused.
+     */
+    private static final class Bucket {
+
+        private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+
+        /**
+         * @return 0 if a token was taken, otherwise nanoseconds until one is available
+         */
+        long tryAcquire(LimitedRoute route, long now) {
+            while (true) {
+                long current = fullAt.get();
+                long next = Math.max(current, now) + route.emissionIntervalNanos();
+                long excess = next - now - route.burstNanos();
+                if (excess > 0) {
+                    return excess;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        boolean isFull(long now) {
+            long current = fullAt.get();
+            return current == Long.MIN_VALUE || current - now <= 0;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.hotelbooking.chatflow.security;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.http.HttpMethod;
+
+import java.util.Map;
+
+/**
+ * Per-route request limits under {@code chatflow.rate-limit}. Each route allows bursts of
+ * {@code capacity} requests per user and refills at {@code refill-per-second}.
+ */
+@ConfigurationProperties("chatflow.rate-limit")
+public record RateLimitProperties(@DefaultValue("true") boolean enabled,
+                                  @DefaultValue Map<String, Route> routes) {
+
+    public record Route(HttpMethod method, String path, int capacity, double refillPerSecond) {
+
+        public Route {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Rate-limit capacity must be at least 1, got " + capacity);
+            }
+            if (!(refillPerSecond > 0)) {
+                throw new IllegalArgumentException("Rate-limit refill-per-second must be positive, got " + refillPerSecond);
+            }
+        }
+    }
+}
@@ -7,20 +7,25 @@ import com.hotelbooking.chatflow.dto.UserDto;
 import com.hotelbooking.chatflow.entity.User;
 import com.hotelbooking.chatflow.repository.UserRepository;
 import com.hotelbooking.chatflow.security.JwtUtil;
+import com.hotelbooking.chatflow.security.PasswordHasher;
 import lombok.RequiredArgsConstructor;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
 import java.time.LocalDateTime;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class AuthService {
 
     private final UserRepository userRepository;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHasher passwordHasher;
     private final JwtUtil jwtUtil;
+    private final UserService userService;
+    private final UserMapper userMapper;
+    private final UserProfileCache userProfileCache;
 
     public Mono<AuthResponse> register(RegisterRequest request) {
         return userRepository.existsByEmail(request.getEmail())
@@ -34,12 +39,14 @@ public class AuthService {
                     if (exists) {
                         return Mono.error(new RuntimeException("Username already exists"));
                     }
-                    
+                    return passwordHasher.encode(request.getPassword());
+                })
+                .flatMap(passwordHash -> {
                     User user = User.builder()
                             .email(request.getEmail())
                             .username(request.getUsername())
                             .fullName(request.getFullName())
-                            .password(passwordEncoder.encode(request.getPassword()))
+                            .password(passwordHash)
                             .avatarUrl("https://ui-avatars.com/api/?name=" + request.getFullName().replace(" ", "+") + "&background=random")
                             .status("online")
                             .isOnline(true)
@@ -54,7 +61,7 @@ public class AuthService {
                     String token = jwtUtil.generateToken(user.getEmail(), user.getId());
                     return AuthResponse.builder()
                             .token(token)
-                            .user(mapToUserDto(user))
+                            .user(toAuthenticatedDto(user))
                             .build();
                 });
     }
@@ -62,38 +69,48 @@ public class AuthService {
     public Mono<AuthResponse> login(LoginRequest request) {
         return userRepository.findByEmail(request.getEmail())
                 .switchIfEmpty(Mono.error(new RuntimeException("Invalid email or password")))
+                .flatMap(user -> passwordHasher.matches(request.getPassword(), user.getPassword())
+                        .flatMap(matches -> {
+                            if (!matches) {
+                                return Mono.error(new RuntimeException("Invalid email or password"));
+                            }
+                            return upgradePasswordHash(user, request.getPassword()).thenReturn(user);
+                        }))
                 .flatMap(user -> {
-                    if (!passwordEncoder.matches(request.getPassword(), user.getPassword())) {
-                        return Mono.error(new RuntimeException("Invalid email or password"));
-                    }
-                    
                     user.setIsOnline(true);
                     user.setLastSeen(LocalDateTime.now());
-                    user.setUpdatedAt(LocalDateTime.now());
                     
-                    return userRepository.save(user)
-                            .map(updatedUser -> {
-                                String token = jwtUtil.generateToken(updatedUser.getEmail(), updatedUser.getId());
+                    // Presence is persisted in the background by the presence registry
+                    return userService.setUserOnline(user.getId())
+                            .then(Mono.fromSupplier(() -> {
+                                String token = jwtUtil.generateToken(user.getEmail(), user.getId());
                                 return AuthResponse.builder()
                                         .token(token)
-                                        .user(mapToUserDto(updatedUser))
+                                        .user(toAuthenticatedDto(user))
                                         .build();
-                            });
+                            }));
                 });
     }
 
-    private UserDto mapToUserDto(User user) {
-        return UserDto.builder()
-                .id(user.getId())
-                .email(user.getEmail())
-                .username(user.getUsername())
-                .fullName(user.getFullName())
-                .avatarUrl(user.getAvatarUrl())
-                .status(user.getStatus())
-                .bio(user.getBio())
-                .isOnline(user.getIsOnline())
-                .lastSeen(user.getLastSeen())
-                .isAuthenticated(true)
-                .build();
+    /**
+     * Rehashes the password while the plain text is at hand if the configured BCrypt cost
+     * has changed since it was stored. Failures only postpone the rehash to the next login.
+     */
+    private Mono<Void> upgradePasswordHash(User user, String rawPassword) {
+        String currentHash = user.getPassword();
+        return passwordHasher.upgrade(rawPassword, currentHash)
+                .flatMap(newHash -> userRepository.replacePasswordHash(user.getId(), currentHash, newHash))
+                .doOnNext(updated -> userProfileCache.invalidate(user.getId()))
+                .onErrorResume(e -> {
+                    log.warn("Could not rehash password of user {}: {}", user.getId(), e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private UserDto toAuthenticatedDto(User user) {
+        UserDto userDto = userMapper.toDto(user);
+        userDto.setIsAuthenticated(true);
+        return userDto;
     }
 }
@@ -0,0 +1,67 @@
+package com.hotelbooking.chatflow.service;
+
+import com.hotelbooking.chatflow.dto.ChatEvent;
+import com.hotelbooking.chatflow.realtime.ClusterNotifications;
+import com.hotelbooking.chatflow.realtime.ClusterNotifications.ClusterEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Replays changes committed on other nodes to the users connected to this one.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ClusterEventRelay {
+
+    private static final int CONCURRENCY = 16;
+
+    private final ClusterNotifications clusterNotifications;
+    private final MessageService messageService;
+    private final FriendshipService friendshipService;
+    private final UserService userService;
+
+    private volatile Disposable subscription;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!clusterNotifications.isEnabled()) {
+            return;
+        }
+        subscription = clusterNotifications.remoteEvents()
+                .flatMap(event -> relay(event)
+                        .onErrorResume(e -> {
+                            log.warn("Failed to relay cluster event {}", event, e);
+                            return Mono.empty();
+                        }), CONCURRENCY)
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    private Mono<Void> relay(ClusterEvent event) {
+        return switch (event.type()) {
+            case ChatEvent.MESSAGE_CREATED ->
+                    messageService.relayMessageCreated(event.messageId(), event.messageAt(), event.userId(), event.peerId());
+            case ChatEvent.CONVERSATION_UPDATED ->
+                    messageService.relayConversationRead(event.userId(), event.peerId());
+            case ChatEvent.FRIENDSHIP_UPDATED, ChatEvent.FRIENDSHIP_REMOVED ->
+                    friendshipService.relayFriendshipChanged(event.userId(), event.peerId());
+            case ChatEvent.PRESENCE_CHANGED ->
+                    userService.relayPresenceChanged(event.userId(), Boolean.TRUE.equals(event.online()));
+            default -> Mono.empty();
+        };
+    }
+}
@@ -0,0 +1,227 @@
+package com.hotelbooking.chatflow.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hotelbooking.chatflow.entity.Friendship;
+import com.hotelbooking.chatflow.repository.FriendshipRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * In-memory adjacency of the friendship graph. A user's edges are loaded with one query the
+ * first time they are needed, and FriendshipService patches loaded entries after each write
+ * commits, so friend ids, "are A and B friends" and friendship status checks need no database
+ * round trip. Only ids and states are kept; lists that show friendship rows load them when
+ * asked. Published as {@code cache.*} metrics with {@code cache=friend-graph}.
+ */
+@Component
+public class FriendGraph {
+
+    private final FriendshipRepository friendshipRepository;
+    // Async so that a patch applied while a load is in flight is chained after it instead of lost
+    private final AsyncCache<Long, Adjacency> adjacencies;
+
+    public FriendGraph(FriendshipRepository friendshipRepository,
+                       MeterRegistry meterRegistry,
+                       @Value("${chatflow.friend-graph.maximum-size:100000}") long maximumSize,
+                       @Value("${chatflow.friend-graph.ttl-ms:600000}") long ttlMs) {
+        this.friendshipRepository = friendshipRepository;
+        this.adjacencies = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, adjacencies, "friend-graph");
+    }
+
+    public Mono<Adjacency> get(Long userId) {
+        return Mono.fromFuture(() -> adjacencies.get(userId, (id, executor) ->
+                friendshipRepository.findAllForUser(id)
+                        .collectList()
+                        .map(edges -> Adjacency.of(id, edges))
+                        .toFuture()));
+    }
+
+    public Mono<Boolean> areFriends(Long userId, Long otherUserId) {
+        return get(userId).map(adjacency -> adjacency.isFriend(otherUserId));
+    }
+
+    /**
+     * Records a created or updated edge on both endpoints. Call after the write has committed.
+     */
+    public void put(Friendship friendship) {
+        patch(friendship.getUserId(), adjacency -> adjacency.with(friendship.getUserId(), friendship));
+        patch(friendship.getFriendId(), adjacency -> adjacency.with(friendship.getFriendId(), friendship));
+    }
+
+    /**
+     * Drops a deleted edge from both endpoints. Call after the delete has committed.
+     */
+    public void remove(Friendship friendship) {
+        patch(friendship.getUserId(), adjacency -> adjacency.without(friendship.getUserId(), friendship));
+        patch(friendship.getFriendId(), adjacency -> adjacency.without(friendship.getFriendId(), friendship));
+    }
+
+    /**
+     * Forgets the given users' edges, for changes committed by another node.
+     */
+    public void invalidate(Long... userIds) {
+        adjacencies.synchronous().invalidateAll(List.of(userIds));
+    }
+
+    private void patch(Long userId, UnaryOperator<Adjacency> change) {
+        // Users that are not loaded are left alone; their next load reads the committed state
+        adjacencies.asMap().computeIfPresent(userId, (id, loaded) -> loaded.thenApply(change));
+    }
+
+    /**
+     * One user's edges as parallel arrays sorted by the other user's id, holding only what
+     * membership and status checks need. Immutable; changes produce a copy.
+     */
+    public static final class Adjacency {
+
+        private static final byte ACCEPTED = 0;
+        private static final byte PENDING_SENT = 1;
+        private static final byte PENDING_RECEIVED = 2;
+
+        private final long[] peerIds;
+        private final long[] friendshipIds;
+        private final byte[] states;
+        // The accepted subset of peerIds, for friendIds() without filtering
+        private final long[] friendIds;
+
+        private Adjacency(long[] peerIds, long[] friendshipIds, byte[] states) {
+            this.peerIds = peerIds;
+            this.friendshipIds = friendshipIds;
+            this.states = states;
+            int accepted = 0;
+            for (byte state : states) {
+                if (state == ACCEPTED) {
+                    accepted++;
+                }
+            }
+            this.friendIds = new long[accepted];
+            for (int i = 0, j = 0; i < states.length; i++) {
+                if (states[i] == ACCEPTED) {
+                    friendIds[j++] = peerIds[i];
+                }
+            }
+        }
+
+        static Adjacency of(Long userId, List<Friendship> edges) {
+            List<Friendship> byPeer = edges.stream()
+                    .sorted(Comparator.comparingLong(edge -> otherUserId(edge, userId)))
+                    .toList();
+            long[] peerIds = new long[byPeer.size()];
+            long[] friendshipIds = new long[byPeer.size()];
+            byte[] states = new byte[byPeer.size()];
+            for (int i = 0; i < byPeer.size(); i++) {
+                Friendship edge = byPeer.get(i);
+                peerIds[i] = otherUserId(edge, userId);
+                friendshipIds[i] = edge.getId();
+                states[i] = state(edge, userId);
+            }
+            return new Adjacency(peerIds, friendshipIds, states);
+        }
+
+        public boolean hasEdge(long otherUserId) {
+            return Arrays.binarySearch(peerIds, otherUserId) >= 0;
+        }
+
+        /**
+         * The friendship status with the other user, or null if there is no edge.
+         */
+        public String status(long otherUserId) {
+            int i = Arrays.binarySearch(peerIds, otherUserId);
+            if (i < 0) {
+                return null;
+            }
+            return states[i] == ACCEPTED ? "ACCEPTED" : "PENDING";
+        }
+
+        public boolean isFriend(long otherUserId) {
+            return Arrays.binarySearch(friendIds, otherUserId) >= 0;
+        }
+
+        /**
+         * Ids of accepted friends in ascending order. The array is shared and must not be modified.
+         */
+        public long[] friendIds() {
+            return friendIds;
+        }
+
+        Adjacency with(Long userId, Friendship edge) {
+            long peerId = otherUserId(edge, userId);
+            int i = Arrays.binarySearch(peerIds, peerId);
+            if (i >= 0) {
+                long[] friendshipIdsCopy = friendshipIds.clone();
+                byte[] statesCopy = states.clone();
+                friendshipIdsCopy[i] = edge.getId();
+                statesCopy[i] = state(edge, userId);
+                return new Adjacency(peerIds, friendshipIdsCopy, statesCopy);
+            }
+            int at = -i - 1;
+            return new Adjacency(insert(peerIds, at, peerId), insert(friendshipIds, at, edge.getId()),
+                    insert(states, at, state(edge, userId)));
+        }
+
+        Adjacency without(Long userId, Friendship edge) {
+            int i = Arrays.binarySearch(peerIds, otherUserId(edge, userId));
+            // A newer edge between the same users may already have replaced this one
+            if (i < 0 || friendshipIds[i] != edge.getId()) {
+                return this;
+            }
+            return new Adjacency(remove(peerIds, i), remove(friendshipIds, i), remove(states, i));
+        }
+
+        private static byte state(Friendship edge, Long userId) {
+            if ("ACCEPTED".equals(edge.getStatus())) {
+                return ACCEPTED;
+            }
+            return userId.equals(edge.getRequesterId()) ? PENDING_SENT : PENDING_RECEIVED;
+        }
+
+        private static long[] insert(long[] values, int at, long value) {
+            long[] copy = new long[values.length + 1];
+            System.arraycopy(values, 0, copy, 0, at);
+            copy[at] = value;
+            System.arraycopy(values, at, copy, at + 1, values.length - at);
+            return copy;
+        }
+
+        private static byte[] insert(byte[] values, int at, byte value) {
+            byte[] copy = new byte[values.length + 1];
+            System.arraycopy(values, 0, copy, 0, at);
+            copy[at] = value;
+            System.arraycopy(values, at, copy, at + 1, values.length - at);
+            return copy;
+        }
+
+        private static long[] remove(long[] values, int at) {
+            long[] copy = new long[values.length - 1];
+            System.arraycopy(values, 0, copy, 0, at);
+            System.arraycopy(values, at + 1, copy, at, copy.length - at);
+            return copy;
+        }
+
+        private static byte[] remove(byte[] values, int at) {
+            byte[] copy = new byte[values.length - 1];
+            System.arraycopy(values, 0, copy, 0, at);
+            System.arraycopy(values, at + 1, copy, at, copy.length - at);
+            return copy;
+        }
+
+        private static long otherUserId(Friendship edge, Long userId) {
+            return edge.getUserId().equals(userId) ? edge.getFriendId() : edge.getUserId();
+        }
+    }
+}
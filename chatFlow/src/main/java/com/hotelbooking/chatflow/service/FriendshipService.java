@@ -1,40 +1,58 @@
 package com.hotelbooking.chatflow.service;
 
+import com.hotelbooking.chatflow.dto.ChatEvent;
 import com.hotelbooking.chatflow.dto.FriendshipDto;
-import com.hotelbooking.chatflow.dto.UserDto;
 import com.hotelbooking.chatflow.dto.UserSearchDto;
 import com.hotelbooking.chatflow.entity.Friendship;
 import com.hotelbooking.chatflow.entity.User;
+import com.hotelbooking.chatflow.realtime.ClusterNotifications;
+import com.hotelbooking.chatflow.realtime.ListVersions;
+import com.hotelbooking.chatflow.realtime.ListVersions.ListKind;
 import com.hotelbooking.chatflow.repository.FriendshipRepository;
 import com.hotelbooking.chatflow.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
 public class FriendshipService {
 
+    private static final int SEARCH_LIMIT = 20;
+
     private final FriendshipRepository friendshipRepository;
     private final UserRepository userRepository;
+    private final UserProfileCache userProfileCache;
+    private final UserMapper userMapper;
+    private final UserBatchLoader userBatchLoader;
+    private final SyncService syncService;
+    private final TransactionalOperator transactionalOperator;
+    private final ListVersions listVersions;
+    private final FriendGraph friendGraph;
+    private final ClusterNotifications clusterNotifications;
 
     public Mono<FriendshipDto> sendFriendRequest(Long userId, Long friendId) {
         if (userId.equals(friendId)) {
             return Mono.error(new RuntimeException("Cannot send friend request to yourself"));
         }
 
-        return friendshipRepository.findByUserIdAndFriendId(userId, friendId)
+        return friendGraph.get(userId)
+                .filter(adjacency -> adjacency.hasEdge(friendId))
                 .flatMap(existing -> Mono.error(new RuntimeException("Friend request already exists")))
                 .switchIfEmpty(
-                        userRepository.findById(friendId)
+                        userProfileCache.get(friendId)
                                 .switchIfEmpty(Mono.error(new RuntimeException("User not found")))
                                 .flatMap(friend -> {
+                                    // Stored as (lower id, higher id); requesterId keeps the direction
                                     Friendship friendship = Friendship.builder()
-                                            .userId(userId)
-                                            .friendId(friendId)
+                                            .userId(Math.min(userId, friendId))
+                                            .friendId(Math.max(userId, friendId))
                                             .status("PENDING")
                                             .requesterId(userId)
                                             .createdAt(LocalDateTime.now())
@@ -42,6 +60,11 @@ public class FriendshipService {
                                             .build();
                                     
                                     return friendshipRepository.save(friendship)
+                                            .flatMap(saved -> friendshipRepository.syncUserFriends(saved.getId()).thenReturn(saved))
+                                            .flatMap(saved -> journal(saved, ChatEvent.FRIENDSHIP_UPDATED))
+                                            .as(transactionalOperator::transactional)
+                                            .doOnNext(friendGraph::put)
+                                            .doOnNext(this::bumpFriendLists)
                                             .flatMap(saved -> mapToFriendshipDto(saved, userId));
                                 })
                 )
@@ -64,6 +87,11 @@ public class FriendshipService {
                     friendship.setUpdatedAt(LocalDateTime.now());
                     
                     return friendshipRepository.save(friendship)
+                            .flatMap(saved -> friendshipRepository.syncUserFriends(saved.getId()).thenReturn(saved))
+                            .flatMap(saved -> journal(saved, ChatEvent.FRIENDSHIP_UPDATED))
+                            .as(transactionalOperator::transactional)
+                            .doOnNext(friendGraph::put)
+                            .doOnNext(this::bumpFriendLists)
                             .flatMap(saved -> mapToFriendshipDto(saved, userId));
                 });
     }
@@ -76,7 +104,12 @@ public class FriendshipService {
                         return Mono.error(new RuntimeException("Unauthorized"));
                     }
                     
-                    return friendshipRepository.deleteById(friendshipId);
+                    return friendshipRepository.deleteById(friendshipId)
+                            .then(journal(friendship, ChatEvent.FRIENDSHIP_REMOVED))
+                            .as(transactionalOperator::transactional)
+                            .doOnNext(friendGraph::remove)
+                            .doOnNext(this::bumpFriendLists)
+                            .then();
                 });
     }
 
@@ -88,18 +121,27 @@ public class FriendshipService {
                         return Mono.error(new RuntimeException("Unauthorized"));
                     }
                     
-                    return friendshipRepository.deleteById(friendshipId);
+                    return friendshipRepository.deleteById(friendshipId)
+                            .then(journal(friendship, ChatEvent.FRIENDSHIP_REMOVED))
+                            .as(transactionalOperator::transactional)
+                            .doOnNext(friendGraph::remove)
+                            .doOnNext(this::bumpFriendLists)
+                            .then();
                 });
     }
 
     public Flux<FriendshipDto> getFriends(Long userId) {
-        return friendshipRepository.findByUserIdAndStatus(userId, "ACCEPTED")
-                .flatMap(friendship -> mapToFriendshipDto(friendship, userId));
+        return userBatchLoader.load(friendshipRepository.findByUserIdAndStatus(userId, "ACCEPTED"),
+                friendship -> List.of(otherUserId(friendship, userId)),
+                (friendship, users) -> mapToFriendshipDto(friendship, userId, users));
     }
 
     public Flux<FriendshipDto> getPendingRequests(Long userId) {
-        return friendshipRepository.findPendingRequestsForUser(userId)
-                .flatMap(friendship -> mapToFriendshipDto(friendship, userId));
+        Flux<Friendship> received = friendshipRepository.findByUserIdAndStatus(userId, "PENDING")
+                .filter(friendship -> !userId.equals(friendship.getRequesterId()));
+        return userBatchLoader.load(received,
+                friendship -> List.of(otherUserId(friendship, userId)),
+                (friendship, users) -> mapToFriendshipDto(friendship, userId, users));
     }
 
     public Flux<UserSearchDto> searchUsers(Long currentUserId, String query) {
@@ -107,72 +149,76 @@ public class FriendshipService {
             return Flux.empty();
         }
 
-        String searchTerm = query.toLowerCase();
+        String term = query.trim().toLowerCase();
+        String escaped = escapeLike(term);
         
-        return userRepository.findAll()
-                .filter(user -> !user.getId().equals(currentUserId))
-                .filter(user -> {
-                    boolean matchesUsername = user.getUsername() != null && 
-                            user.getUsername().toLowerCase().contains(searchTerm);
-                    boolean matchesFullName = user.getFullName() != null && 
-                            user.getFullName().toLowerCase().contains(searchTerm);
-                    boolean matchesEmail = user.getEmail() != null && 
-                            user.getEmail().toLowerCase().contains(searchTerm);
-                    boolean matchesPhone = user.getPhoneNumber() != null && 
-                            user.getPhoneNumber().contains(query); // Exact match for phone
-                    
-                    return matchesUsername || matchesFullName || matchesEmail || matchesPhone;
-                })
-                .flatMap(user -> 
-                    friendshipRepository.findByUserIdAndFriendId(currentUserId, user.getId())
-                            .map(friendship -> mapToUserSearchDto(user, friendship))
-                            .defaultIfEmpty(mapToUserSearchDto(user, null))
-                )
-                .take(20); // Limit results
+        // Trigram indexes need at least three characters; shorter terms match on prefixes
+        Flux<User> matches = term.length() < 3
+                ? userRepository.searchByPrefix(term, escaped + "%", currentUserId, SEARCH_LIMIT)
+                : userRepository.searchByContaining(term, escaped + "%", "%" + escaped + "%", currentUserId, SEARCH_LIMIT);
+        
+        return matches
+                .collectList()
+                .zipWith(friendGraph.get(currentUserId))
+                .flatMapIterable(result -> result.getT1().stream()
+                        .map(user -> userMapper.toSearchDto(user, result.getT2().status(user.getId())))
+                        .toList());
+    }
+
+    /**
+     * Drops cached friendship state changed through another node.
+     */
+    public Mono<Void> relayFriendshipChanged(Long userId, Long friendId) {
+        return Mono.fromRunnable(() -> {
+            friendGraph.invalidate(userId, friendId);
+            listVersions.bump(userId, ListKind.FRIENDS, ListKind.PENDING_REQUESTS);
+            listVersions.bump(friendId, ListKind.FRIENDS, ListKind.PENDING_REQUESTS);
+        });
+    }
+
+    /**
+     * Records the change in both participants' sync journals and tells the other nodes.
+     */
+    private Mono<Friendship> journal(Friendship friendship, String type) {
+        return syncService.record(friendship.getUserId(), type, friendship)
+                .then(syncService.record(friendship.getFriendId(), type, friendship))
+                .then(clusterNotifications.publish(type, friendship.getUserId(), friendship.getFriendId()))
+                .thenReturn(friendship);
+    }
+
+    private void bumpFriendLists(Friendship friendship) {
+        listVersions.bump(friendship.getUserId(), ListKind.FRIENDS, ListKind.PENDING_REQUESTS);
+        listVersions.bump(friendship.getFriendId(), ListKind.FRIENDS, ListKind.PENDING_REQUESTS);
+    }
+
+    private String escapeLike(String term) {
+        return term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
     }
 
     private Mono<FriendshipDto> mapToFriendshipDto(Friendship friendship, Long currentUserId) {
-        Long friendUserId = friendship.getUserId().equals(currentUserId) 
-                ? friendship.getFriendId() 
-                : friendship.getUserId();
-        
-        return userRepository.findById(friendUserId)
-                .map(friendUser -> FriendshipDto.builder()
-                        .id(friendship.getId())
-                        .friend(mapToUserDto(friendUser))
-                        .status(friendship.getStatus())
-                        .isRequester(friendship.getRequesterId().equals(currentUserId))
-                        .createdAt(friendship.getCreatedAt())
-                        .build());
+        return userBatchLoader.loadOne(friendship,
+                f -> List.of(otherUserId(f, currentUserId)),
+                (f, users) -> mapToFriendshipDto(f, currentUserId, users));
     }
 
-    private UserDto mapToUserDto(User user) {
-        return UserDto.builder()
-                .id(user.getId())
-                .email(user.getEmail())
-                .username(user.getUsername())
-                .fullName(user.getFullName())
-                .phoneNumber(user.getPhoneNumber())
-                .avatarUrl(user.getAvatarUrl())
-                .status(user.getStatus())
-                .bio(user.getBio())
-                .isOnline(user.getIsOnline())
-                .lastSeen(user.getLastSeen())
+    private FriendshipDto mapToFriendshipDto(Friendship friendship, Long currentUserId, Map<Long, User> users) {
+        User friendUser = users.get(otherUserId(friendship, currentUserId));
+        if (friendUser == null) {
+            return null;
+        }
+        
+        return FriendshipDto.builder()
+                .id(friendship.getId())
+                .friend(userMapper.toDto(friendUser))
+                .status(friendship.getStatus())
+                .isRequester(friendship.getRequesterId().equals(currentUserId))
+                .createdAt(friendship.getCreatedAt())
                 .build();
     }
 
-    private UserSearchDto mapToUserSearchDto(User user, Friendship friendship) {
-        return UserSearchDto.builder()
-                .id(user.getId())
-                .email(user.getEmail())
-                .username(user.getUsername())
-                .fullName(user.getFullName())
-                .phoneNumber(user.getPhoneNumber())
-                .avatarUrl(user.getAvatarUrl())
-                .status(user.getStatus())
-                .isOnline(user.getIsOnline())
-                .friendshipStatus(friendship != null ? friendship.getStatus() : null)
-                .isFriend(friendship != null && "ACCEPTED".equals(friendship.getStatus()))
-                .build();
+    private Long otherUserId(Friendship friendship, Long currentUserId) {
+        return friendship.getUserId().equals(currentUserId) 
+                ? friendship.getFriendId() 
+                : friendship.getUserId();
     }
 }
@@ -0,0 +1,240 @@
+package com.hotelbooking.chatflow.service;
+
+import com.hotelbooking.chatflow.entity.Message;
+import com.hotelbooking.chatflow.repository.MessageRepository;
+import io.r2dbc.spi.R2dbcException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Writes new messages, optionally group-committing concurrent sends. When enabled, sends
+ * arriving within {@code max-delay-ms} of each other (up to {@code max-size}) share one
+ * multi-row INSERT and one transaction, and their follow-up writes run once for the whole
+ * batch. Up to {@code max-in-flight} batches are written at a time. If a batch fails, its
+ * messages are retried one by one so a single bad message fails alone, and a message whose
+ * month has no partition yet creates it and is retried once.
+ */
+@Slf4j
+@Component
+public class MessageBatchWriter {
+
+    /**
+     * Draws the ids up front so each one comes back next to the position of its input row;
+     * RETURNING alone makes no promise about the order of its rows.
+     */
+    private static final String INSERT_SQL =
+            "WITH input AS MATERIALIZED (" +
+            "    SELECT nextval(pg_get_serial_sequence('messages', 'id')) AS id, u.* " +
+            "    FROM UNNEST(CAST(:senderIds AS BIGINT[]), CAST(:receiverIds AS BIGINT[]), " +
+            "    CAST(:contents AS TEXT[]), CAST(:messageTypes AS VARCHAR[]), CAST(:isRead AS BOOLEAN[]), " +
+            "    CAST(:createdAt AS TIMESTAMP[])) " +
+            "    WITH ORDINALITY AS u(sender_id, receiver_id, content, message_type, is_read, created_at, ord)), " +
+            "inserted AS (" +
+            "    INSERT INTO messages (id, sender_id, receiver_id, content, message_type, is_read, created_at) " +
+            "    SELECT id, sender_id, receiver_id, content, message_type, is_read, created_at FROM input) " +
+            "SELECT ord, id FROM input";
+
+    // check_violation, which Postgres also raises for other CHECK constraints
+    private static final String MISSING_PARTITION_STATE = "23514";
+
+    private final MessageRepository messageRepository;
+    private final MessagePartitionMaintenance partitionMaintenance;
+    private final DatabaseClient databaseClient;
+    private final TransactionalOperator transactionalOperator;
+    private final boolean enabled;
+    private final int maxSize;
+    private final Duration maxDelay;
+    private final int maxInFlight;
+
+    private final Sinks.Many<PendingWrite> pending = Sinks.many().unicast().onBackpressureBuffer();
+    private Disposable writer;
+
+    public MessageBatchWriter(MessageRepository messageRepository,
+                              MessagePartitionMaintenance partitionMaintenance,
+                              DatabaseClient databaseClient,
+                              TransactionalOperator transactionalOperator,
+                              @Value("${chatflow.message-batch.enabled:false}") boolean enabled,
+                              @Value("${chatflow.message-batch.max-size:100}") int maxSize,
+                              @Value("${chatflow.message-batch.max-delay-ms:5}") long maxDelayMs,
+                              @Value("${chatflow.message-batch.max-in-flight:4}") int maxInFlight) {
+        this.messageRepository = messageRepository;
+        this.partitionMaintenance = partitionMaintenance;
+        this.databaseClient = databaseClient;
+        this.transactionalOperator = transactionalOperator;
+        this.enabled = enabled;
+        this.maxSize = maxSize;
+        this.maxDelay = Duration.ofMillis(maxDelayMs);
+        this.maxInFlight = maxInFlight;
+    }
+
+    private record PendingWrite(Message message, Function<List<Message>, ? extends Mono<? extends List<?>>> followUp,
+                                Sinks.One<Object> result) {
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        writer = pending.asFlux()
+                .bufferTimeout(maxSize, maxDelay, true)
+                .flatMap(this::writeBatch, maxInFlight)
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        synchronized (pending) {
+            pending.tryEmitComplete();
+        }
+        if (writer != null) {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Inserts the message and then, in the same transaction, runs {@code followUp} on the saved
+     * rows of its batch, and returns the follow-up's result for this message. {@code followUp}
+     * must return one result per message, in order; writes passing the same function instance
+     * share one call to it.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> Mono<R> write(Message message, Function<List<Message>, Mono<List<R>>> followUp) {
+        if (!enabled) {
+            return writeOne(message, followUp).map(saved -> (R) saved);
+        }
+        return Mono.defer(() -> {
+            Sinks.One<Object> result = Sinks.one();
+            // Emissions must not overlap; under a burst, busy-looping for a turn can run out
+            synchronized (pending) {
+                pending.emitNext(new PendingWrite(message, followUp, result), Sinks.EmitFailureHandler.FAIL_FAST);
+            }
+            return result.asMono().map(saved -> (R) saved);
+        });
+    }
+
+    private Mono<Object> writeOne(Message message, Function<List<Message>, ? extends Mono<? extends List<?>>> followUp) {
+        Mono<Object> write = Mono.defer(() -> messageRepository.save(message)
+                .flatMap(saved -> followUp.apply(List.of(saved)))
+                .<Object>map(results -> single(results, 1).get(0))
+                .as(transactionalOperator::transactional));
+        // Partitions are normally created months ahead; this only covers maintenance that has not run
+        return write.onErrorResume(MessageBatchWriter::isMissingPartition, e -> {
+            log.warn("No messages partition for {}, creating it", message.getCreatedAt());
+            message.setId(null);
+            return partitionMaintenance.createPartition(message.getCreatedAt().toLocalDate()).then(write);
+        });
+    }
+
+    private static boolean isMissingPartition(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof R2dbcException r2dbc && MISSING_PARTITION_STATE.equals(r2dbc.getSqlState())
+                    && r2dbc.getMessage() != null && r2dbc.getMessage().startsWith("no partition of relation")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Mono<Void> writeBatch(List<PendingWrite> batch) {
+        if (batch.size() == 1) {
+            return complete(batch.get(0), writeOne(batch.get(0).message(), batch.get(0).followUp()));
+        }
+        Map<Function<List<Message>, ? extends Mono<? extends List<?>>>, List<PendingWrite>> byFollowUp =
+                batch.stream().collect(Collectors.groupingBy(PendingWrite::followUp, IdentityHashMap::new, Collectors.toList()));
+        return insertAll(batch.stream().map(PendingWrite::message).toList())
+                .thenMany(Flux.fromIterable(byFollowUp.values())
+                        .concatMap(writes -> writes.get(0).followUp()
+                                .apply(writes.stream().map(PendingWrite::message).toList())
+                                .map(results -> Tuples.of(writes, single(results, writes.size())))))
+                .collectList()
+                .as(transactionalOperator::transactional)
+                .doOnNext(groups -> {
+                    log.debug("Group-committed {} messages", batch.size());
+                    // Only once the transaction has committed
+                    for (Tuple2<List<PendingWrite>, ? extends List<?>> group : groups) {
+                        for (int i = 0; i < group.getT1().size(); i++) {
+                            group.getT1().get(i).result().tryEmitValue(group.getT2().get(i));
+                        }
+                    }
+                })
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("Batched insert of {} messages failed, writing them one by one", batch.size(), e);
+                    batch.forEach(write -> write.message().setId(null));
+                    return Flux.fromIterable(batch)
+                            .concatMap(write -> complete(write, writeOne(write.message(), write.followUp())))
+                            .then();
+                });
+    }
+
+    private static <T extends List<?>> T single(T results, int expected) {
+        if (results.size() != expected) {
+            throw new IllegalStateException("Follow-up returned " + results.size() + " results for " + expected + " messages");
+        }
+        return results;
+    }
+
+    private Mono<Void> complete(PendingWrite write, Mono<?> result) {
+        return result
+                .doOnNext(value -> write.result().tryEmitValue(value))
+                .doOnError(e -> write.result().tryEmitError(e))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    private Mono<Void> insertAll(List<Message> messages) {
+        int size = messages.size();
+        Long[] senderIds = new Long[size];
+        Long[] receiverIds = new Long[size];
+        String[] contents = new String[size];
+        String[] messageTypes = new String[size];
+        Boolean[] isRead = new Boolean[size];
+        LocalDateTime[] createdAt = new LocalDateTime[size];
+        for (int i = 0; i < size; i++) {
+            Message message = messages.get(i);
+            senderIds[i] = message.getSenderId();
+            receiverIds[i] = message.getReceiverId();
+            contents[i] = message.getContent();
+            messageTypes[i] = message.getMessageType();
+            isRead[i] = message.getIsRead();
+            createdAt[i] = message.getCreatedAt();
+        }
+
+        return databaseClient.sql(INSERT_SQL)
+                .bind("senderIds", senderIds)
+                .bind("receiverIds", receiverIds)
+                .bind("contents", contents)
+                .bind("messageTypes", messageTypes)
+                .bind("isRead", isRead)
+                .bind("createdAt", createdAt)
+                .map(row -> Tuples.of(row.get("ord", Long.class), row.get("id", Long.class)))
+                .all()
+                // WITH ORDINALITY counts from 1
+                .doOnNext(row -> messages.get(row.getT1().intValue() - 1).setId(row.getT2()))
+                .then(Mono.fromRunnable(() -> {
+                    if (messages.stream().anyMatch(message -> message.getId() == null)) {
+                        throw new IllegalStateException("Batched insert did not return an id for every message");
+                    }
+                }));
+    }
+}
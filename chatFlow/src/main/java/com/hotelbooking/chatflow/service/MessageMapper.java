@@ -0,0 +1,126 @@
+package com.hotelbooking.chatflow.service;
+
+import com.hotelbooking.chatflow.dto.ConversationDto;
+import com.hotelbooking.chatflow.dto.MessageDto;
+import com.hotelbooking.chatflow.dto.MessagePageDto;
+import com.hotelbooking.chatflow.dto.UserDto;
+import com.hotelbooking.chatflow.entity.ConversationSummary;
+import com.hotelbooking.chatflow.entity.Message;
+import com.hotelbooking.chatflow.entity.User;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Component
+@RequiredArgsConstructor
+public class MessageMapper {
+
+    private final UserMapper userMapper;
+
+    /**
+     * How far a reader has read a conversation. Messages are ordered by (createdAt, id), the
+     * same order they are paged and counted unread in; a null {@code messageAt} sorts first.
+     */
+    public record ReadWatermark(LocalDateTime messageAt, Long messageId) {
+
+        public static ReadWatermark of(ConversationSummary summary) {
+            return new ReadWatermark(summary.getLastReadMessageAt(), summary.getLastReadMessageId());
+        }
+
+        public boolean covers(LocalDateTime createdAt, Long id) {
+            if (messageAt == null) {
+                return false;
+            }
+            int byTime = createdAt.compareTo(messageAt);
+            return byTime < 0 || (byTime == 0 && messageId != null && id <= messageId);
+        }
+    }
+
+    /**
+     * Returns null when the sender or receiver is missing from {@code users}.
+     */
+    public MessageDto toDto(Message message, Map<Long, User> users, boolean isRead) {
+        User sender = users.get(message.getSenderId());
+        User receiver = users.get(message.getReceiverId());
+        if (sender == null || receiver == null) {
+            return null;
+        }
+
+        return messageDtoBuilder(message, isRead)
+                .sender(userMapper.toDto(sender))
+                .receiver(userMapper.toDto(receiver))
+                .build();
+    }
+
+    /**
+     * Messages whose sender or receiver is missing from {@code participants} are left out,
+     * as in {@link #toDto}.
+     */
+    public MessagePageDto toPage(List<Message> messages, List<User> participants, Map<Long, ReadWatermark> watermarks) {
+        Map<Long, UserDto> users = new LinkedHashMap<>();
+        for (User participant : participants) {
+            users.put(participant.getId(), userMapper.toDto(participant));
+        }
+        List<MessageDto> dtos = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            if (users.containsKey(message.getSenderId()) && users.containsKey(message.getReceiverId())) {
+                dtos.add(messageDtoBuilder(message, isRead(message, watermarks)).build());
+            }
+        }
+        return MessagePageDto.builder()
+                .messages(dtos)
+                .users(users)
+                .build();
+    }
+
+    public List<ConversationDto> toConversationDtos(List<ConversationSummary> summaries, Map<Long, User> peers) {
+        return summaries.stream()
+                .filter(summary -> peers.containsKey(summary.getPeerId()))
+                .map(summary -> ConversationDto.builder()
+                        .friend(userMapper.toDto(peers.get(summary.getPeerId())))
+                        .lastMessage(toLastMessageDto(summary))
+                        .unreadCount(summary.getUnreadCount())
+                        .build())
+                .toList();
+    }
+
+    /**
+     * Whether the receiver has read {@code message}, given read watermarks by reader id.
+     */
+    public boolean isRead(Message message, Map<Long, ReadWatermark> watermarks) {
+        ReadWatermark watermark = watermarks.get(message.getReceiverId());
+        return watermark != null && watermark.covers(message.getCreatedAt(), message.getId());
+    }
+
+    private MessageDto toLastMessageDto(ConversationSummary summary) {
+        if (summary.getLastMessageId() == null) {
+            return null;
+        }
+        boolean incoming = summary.getLastMessageSenderId().equals(summary.getPeerId());
+        return MessageDto.builder()
+                .id(summary.getLastMessageId())
+                .content(summary.getLastMessagePreview())
+                .createdAt(summary.getLastMessageAt())
+                .senderId(summary.getLastMessageSenderId())
+                .receiverId(incoming ? summary.getUserId() : summary.getPeerId())
+                // Only known for incoming messages, from this user's own watermark
+                .isRead(incoming ? ReadWatermark.of(summary).covers(summary.getLastMessageAt(), summary.getLastMessageId()) : null)
+                .build();
+    }
+
+    private MessageDto.MessageDtoBuilder messageDtoBuilder(Message message, boolean isRead) {
+        return MessageDto.builder()
+                .id(message.getId())
+                .senderId(message.getSenderId())
+                .receiverId(message.getReceiverId())
+                .content(message.getContent())
+                .messageType(message.getMessageType())
+                .isRead(isRead)
+                .createdAt(message.getCreatedAt());
+    }
+}
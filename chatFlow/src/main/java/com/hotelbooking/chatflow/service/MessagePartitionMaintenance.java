@@ -0,0 +1,163 @@
+package com.hotelbooking.chatflow.service;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the monthly partitions of {@code messages} ahead of the clock and retires old ones.
+ * Retired partitions are detached as a whole (and dropped when configured to) instead of
+ * deleting rows, so retention costs a catalog change rather than a table scan. Detached
+ * partitions stay behind as standalone {@code messages_pYYYYMM} tables for export.
+ * <p>
+ * Detaching uses {@code DETACH PARTITION ... CONCURRENTLY}, which does not block reads and
+ * writes of other partitions but rules out a DEFAULT partition; inserts that find no
+ * partition create it through {@link #createPartition} instead. Each run holds an advisory
+ * lock, so with several instances only one of them does the work.
+ */
+@Slf4j
+@Component
+public class MessagePartitionMaintenance {
+
+    private static final String PARTITION_PREFIX = "messages_p";
+    private static final Pattern PARTITION_NAME = Pattern.compile("messages_p\\d{6}");
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final String LOCK_KEY = "hashtext('chatflow.messages.partition-maintenance')";
+
+    private final DatabaseClient databaseClient;
+    private final ConnectionFactory connectionFactory;
+    private final int partitionsAhead;
+    private final int retentionMonths;
+    private final boolean dropRetired;
+    private final int retentionBatchSize;
+
+    public MessagePartitionMaintenance(DatabaseClient databaseClient,
+                                       ConnectionFactory connectionFactory,
+                                       @Value("${chatflow.messages.partitions-ahead:3}") int partitionsAhead,
+                                       @Value("${chatflow.messages.retention-months:0}") int retentionMonths,
+                                       @Value("${chatflow.messages.retention-action:detach}") String retentionAction,
+                                       @Value("${chatflow.messages.retention-batch-size:6}") int retentionBatchSize) {
+        this.databaseClient = databaseClient;
+        this.connectionFactory = connectionFactory;
+        this.partitionsAhead = partitionsAhead;
+        this.retentionMonths = retentionMonths;
+        this.dropRetired = "drop".equalsIgnoreCase(retentionAction);
+        this.retentionBatchSize = retentionBatchSize;
+    }
+
+    // Scheduling calls this once and resubscribes the result, so the months are worked out per subscription
+    @Scheduled(fixedDelayString = "${chatflow.messages.maintenance-interval-ms:3600000}")
+    public Mono<Void> maintain() {
+        return whileLocked(finishPendingDetaches()
+                .then(Mono.defer(this::createUpcomingPartitions))
+                .then(Mono.defer(this::retireOldPartitions)))
+                .onErrorResume(e -> {
+                    log.warn("Message partition maintenance failed, will retry on next run", e);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Creates the partition for the month containing {@code day} if it does not exist yet.
+     */
+    public Mono<Void> createPartition(LocalDate day) {
+        return databaseClient.sql("SELECT create_messages_partition(:month)")
+                .bind("month", day)
+                .then();
+    }
+
+    /**
+     * Runs {@code work} unless another instance holds the maintenance lock. The lock is taken
+     * on a connection of its own, since the detaches must run outside any transaction, and is
+     * released before the connection goes back to the pool.
+     */
+    private Mono<Void> whileLocked(Mono<Void> work) {
+        return Mono.usingWhen(Mono.from(connectionFactory.create()),
+                connection -> queryBoolean(connection, "SELECT pg_try_advisory_lock(" + LOCK_KEY + ")")
+                        .flatMap(locked -> locked
+                                ? work.onErrorResume(e -> unlock(connection).then(Mono.error(e)))
+                                        .then(unlock(connection))
+                                : Mono.fromRunnable(() -> log.debug("Message partition maintenance is running elsewhere"))),
+                connection -> Mono.from(connection.close()));
+    }
+
+    private Mono<Void> unlock(Connection connection) {
+        return queryBoolean(connection, "SELECT pg_advisory_unlock(" + LOCK_KEY + ")").then();
+    }
+
+    private static Mono<Boolean> queryBoolean(Connection connection, String sql) {
+        return Flux.from(connection.createStatement(sql).execute())
+                .flatMap(result -> result.map((row, metadata) -> row.get(0, Boolean.class)))
+                .next();
+    }
+
+    /**
+     * Completes detaches interrupted by a failure or restart, which leave the partition
+     * attached in a pending state that blocks further detaches.
+     */
+    private Mono<Void> finishPendingDetaches() {
+        return databaseClient.sql("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                        "WHERE i.inhparent = 'messages'::regclass AND i.inhdetachpending")
+                .map(row -> row.get("relname", String.class))
+                .all()
+                .filter(name -> PARTITION_NAME.matcher(name).matches())
+                .concatMap(partition -> databaseClient.sql("ALTER TABLE messages DETACH PARTITION " + partition + " FINALIZE")
+                        .then()
+                        .doOnSuccess(done -> log.info("Finished detaching message partition {}", partition)))
+                .then();
+    }
+
+    private Mono<Void> createUpcomingPartitions() {
+        YearMonth current = YearMonth.now();
+        return Flux.range(0, partitionsAhead + 1)
+                .map(offset -> current.plusMonths(offset).atDay(1))
+                .concatMap(this::createPartition)
+                .then();
+    }
+
+    /**
+     * Retires, oldest first and at most {@code retention-batch-size} per run, every partition
+     * that ends before the retention window.
+     */
+    private Mono<Void> retireOldPartitions() {
+        if (retentionMonths <= 0) {
+            return Mono.empty();
+        }
+        YearMonth oldestKept = YearMonth.now().minusMonths(retentionMonths);
+        return databaseClient.sql("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+                        "WHERE i.inhparent = 'messages'::regclass ORDER BY c.relname")
+                .map(row -> row.get("relname", String.class))
+                .all()
+                .filter(name -> PARTITION_NAME.matcher(name).matches())
+                .filter(name -> partitionMonth(name).isBefore(oldestKept))
+                .take(retentionBatchSize)
+                .concatMap(this::retire)
+                .then();
+    }
+
+    private Mono<Void> retire(String partition) {
+        // Safe to splice: the name comes from pg_class and matched PARTITION_NAME. CONCURRENTLY
+        // refuses to run in a transaction, and DatabaseClient runs it on its own in autocommit
+        Mono<Void> detach = databaseClient.sql("ALTER TABLE messages DETACH PARTITION " + partition + " CONCURRENTLY").then();
+        Mono<Void> drop = dropRetired
+                ? databaseClient.sql("DROP TABLE " + partition).then()
+                : Mono.empty();
+        return detach.then(drop)
+                .doOnSuccess(done -> log.info("Retired message partition {} ({})", partition, dropRetired ? "dropped" : "detached"));
+    }
+
+    private YearMonth partitionMonth(String partition) {
+        return YearMonth.parse(partition.substring(PARTITION_PREFIX.length()), PARTITION_SUFFIX);
+    }
+}
@@ -1,31 +1,69 @@
 package com.hotelbooking.chatflow.service;
 
+import com.hotelbooking.chatflow.dto.ChatEvent;
+import com.hotelbooking.chatflow.dto.ConversationDeltaDto;
 import com.hotelbooking.chatflow.dto.ConversationDto;
+import com.hotelbooking.chatflow.dto.MarkReadRequest;
+import com.hotelbooking.chatflow.dto.MessageCursor;
 import com.hotelbooking.chatflow.dto.MessageDto;
+import com.hotelbooking.chatflow.dto.MessagePageDto;
 import com.hotelbooking.chatflow.dto.SendMessageRequest;
-import com.hotelbooking.chatflow.dto.UserDto;
+import com.hotelbooking.chatflow.entity.ConversationSummary;
 import com.hotelbooking.chatflow.entity.Message;
 import com.hotelbooking.chatflow.entity.User;
+import com.hotelbooking.chatflow.realtime.ChatEventBus;
+import com.hotelbooking.chatflow.realtime.ClusterNotifications;
+import com.hotelbooking.chatflow.realtime.ListVersions;
+import com.hotelbooking.chatflow.realtime.ListVersions.ListKind;
+import com.hotelbooking.chatflow.repository.ConversationSummaryRepository;
 import com.hotelbooking.chatflow.repository.MessageRepository;
-import com.hotelbooking.chatflow.repository.UserRepository;
+import com.hotelbooking.chatflow.service.MessageMapper.ReadWatermark;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 @Service
 @RequiredArgsConstructor
 public class MessageService {
 
+    private static final Duration SSE_KEEP_ALIVE = Duration.ofSeconds(25);
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final String OPERATIONS_TIMER = "chatflow.messages.operations";
+    private static final String MARK_READ_COUNTER = "chatflow.messages.mark-read";
+
     private final MessageRepository messageRepository;
-    private final UserRepository userRepository;
+    private final ConversationSummaryRepository conversationSummaryRepository;
+    private final UserProfileCache userProfileCache;
+    private final MessageMapper messageMapper;
+    private final ChatEventBus eventBus;
+    private final TransactionalOperator transactionalOperator;
+    private final UserBatchLoader userBatchLoader;
+    private final SyncService syncService;
+    private final ListVersions listVersions;
+    private final MessageBatchWriter messageBatchWriter;
+    private final ClusterNotifications clusterNotifications;
+    private final MeterRegistry meterRegistry;
+
+    // One instance, so the batch writer runs it once for all the messages of a batch
+    private final Function<List<Message>, Mono<List<SavedMessage>>> recordSent = this::recordSent;
 
     public Mono<MessageDto> sendMessage(Long senderId, SendMessageRequest request) {
-        return userRepository.findById(request.getReceiverId())
+        Mono<MessageDto> send = userProfileCache.get(request.getReceiverId())
                 .switchIfEmpty(Mono.error(new RuntimeException("Receiver not found")))
                 .flatMap(receiver -> {
                     Message message = Message.builder()
@@ -37,120 +75,315 @@ public class MessageService {
                             .createdAt(LocalDateTime.now())
                             .build();
                     
-                    return messageRepository.save(message);
+                    return messageBatchWriter.write(message, recordSent);
                 })
-                .flatMap(savedMessage -> mapToMessageDto(savedMessage));
+                .flatMap(saved -> userBatchLoader.loadOne(saved.message(), this::participants,
+                                (message, users) -> messageMapper.toDto(message, users, false))
+                        .doOnNext(messageDto -> publishMessageCreated(messageDto, saved.receiverSummary())));
+        return timed("send", send);
+    }
+
+    public Flux<ServerSentEvent<Object>> streamConversations(Long userId) {
+        // Subscribe to deltas before loading the snapshot so nothing falls in between;
+        // mergeSequential holds them back until the snapshot has been sent
+        Flux<ServerSentEvent<Object>> snapshot = getConversations(userId)
+                .collectList()
+                .map(conversations -> toServerSentEvent(ChatEvent.of(ChatEvent.CONVERSATIONS_SNAPSHOT, conversations)))
+                .flux();
+        Flux<ServerSentEvent<Object>> deltas = eventBus.subscribe(userId)
+                .filter(event -> ChatEvent.CONVERSATION_UPDATED.equals(event.getType())
+                        || ChatEvent.PRESENCE_CHANGED.equals(event.getType()))
+                .map(this::toServerSentEvent);
+        Flux<ServerSentEvent<Object>> keepAlive = Flux.interval(SSE_KEEP_ALIVE)
+                .map(tick -> ServerSentEvent.builder().comment("keep-alive").build());
+
+        return Flux.merge(Flux.mergeSequential(snapshot, deltas), keepAlive);
+    }
+
+    /**
+     * Returns one page of the conversation in ascending order. With {@code after} the page
+     * starts right after that message; otherwise it ends right before {@code before}, or at
+     * the newest message when no cursor is given.
+     */
+    public Flux<MessageDto> getConversationMessages(Long userId, Long friendId, MessageCursor before, MessageCursor after,
+                                                    int limit) {
+        Flux<Message> page = conversationPage(userId, friendId, before, after, limit);
+        return readWatermarks(userId, friendId)
+                .flatMapMany(watermarks -> userBatchLoader.load(page, this::participants,
+                        (message, users) -> messageMapper.toDto(message, users,
+                                messageMapper.isRead(message, watermarks))));
     }
 
-    public Flux<MessageDto> getConversationMessages(Long userId, Long friendId) {
-        return messageRepository.findConversationMessages(userId, friendId)
-                .flatMap(message -> mapToMessageDto(message));
+    /**
+     * The same page as {@link #getConversationMessages}, with the two participants' profiles
+     * returned once instead of on every message.
+     */
+    public Mono<MessagePageDto> getConversationPage(Long userId, Long friendId, MessageCursor before, MessageCursor after,
+                                                    int limit) {
+        Mono<List<User>> participants = Flux.just(userId, friendId)
+                .flatMapSequential(userProfileCache::get)
+                .collectList();
+        return Mono.zip(conversationPage(userId, friendId, before, after, limit).collectList(),
+                        participants, readWatermarks(userId, friendId))
+                .map(page -> messageMapper.toPage(page.getT1(), page.getT2(), page.getT3()));
+    }
+
+    private Flux<Message> conversationPage(Long userId, Long friendId, MessageCursor before, MessageCursor after,
+                                           int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        
+        if (after != null) {
+            return messageRepository.findConversationMessagesAfter(userId, friendId,
+                    after.createdAt(), after.id(), pageSize);
+        }
+        Flux<Message> newestFirst = before != null
+                ? messageRepository.findConversationMessagesBefore(userId, friendId,
+                        before.createdAt(), before.id(), pageSize)
+                : messageRepository.findLatestConversationMessages(userId, friendId, pageSize);
+        return newestFirst.collectList()
+                .flatMapIterable(messages -> {
+                    Collections.reverse(messages);
+                    return messages;
+                });
     }
 
     public Flux<ConversationDto> getConversations(Long userId) {
-        return messageRepository.findByUserIdOrderByCreatedAtDesc(userId)
-                .collectMultimap(message -> {
-                    // Group by the other user (friend)
-                    return message.getSenderId().equals(userId) 
-                            ? message.getReceiverId() 
-                            : message.getSenderId();
-                })
-                .flatMapMany(conversationsMap -> {
-                    return Flux.fromIterable(conversationsMap.entrySet())
-                            .flatMap(entry -> {
-                                Long friendId = entry.getKey();
-                                var messages = entry.getValue();
-                                
-                                // Get last message
-                                Message lastMessage = messages.stream()
-                                        .max((m1, m2) -> m1.getCreatedAt().compareTo(m2.getCreatedAt()))
-                                        .orElse(null);
-                                
-                                // Count unread messages
-                                long unreadCount = messages.stream()
-                                        .filter(m -> m.getReceiverId().equals(userId) && !m.getIsRead())
-                                        .count();
-                                
-                                return userRepository.findById(friendId)
-                                        .map(friend -> {
-                                            MessageDto lastMsgDto = null;
-                                            if (lastMessage != null) {
-                                                lastMsgDto = MessageDto.builder()
-                                                        .id(lastMessage.getId())
-                                                        .content(lastMessage.getContent())
-                                                        .createdAt(lastMessage.getCreatedAt())
-                                                        .senderId(lastMessage.getSenderId())
-                                                        .receiverId(lastMessage.getReceiverId())
-                                                        .isRead(lastMessage.getIsRead())
-                                                        .build();
-                                            }
-                                            
-                                            return ConversationDto.builder()
-                                                    .friend(mapToUserDto(friend))
-                                                    .lastMessage(lastMsgDto)
-                                                    .unreadCount((int) unreadCount)
-                                                    .build();
-                                        });
-                            });
-                })
-                .sort((c1, c2) -> {
-                    if (c1.getLastMessage() == null) return 1;
-                    if (c2.getLastMessage() == null) return -1;
-                    return c2.getLastMessage().getCreatedAt()
-                            .compareTo(c1.getLastMessage().getCreatedAt());
+        Flux<ConversationDto> conversations = conversationSummaryRepository.findByUserId(userId)
+                .collectList()
+                .flatMapMany(summaries -> {
+                    List<Long> peerIds = summaries.stream()
+                            .map(ConversationSummary::getPeerId)
+                            .toList();
+                    
+                    return userProfileCache.getAll(peerIds)
+                            .flatMapIterable(peers -> messageMapper.toConversationDtos(summaries, peers));
                 });
+        return timed("conversations", conversations);
     }
 
     public Mono<Void> markAsRead(Long userId, Long messageId) {
-        return messageRepository.findById(messageId)
-                .filter(message -> message.getReceiverId().equals(userId))
-                .flatMap(message -> {
-                    message.setIsRead(true);
-                    return messageRepository.save(message);
-                })
-                .then();
+        return markMessagesAsRead(userId, List.of(messageId));
+    }
+
+    public Mono<Void> markAsRead(Long userId, MarkReadRequest request) {
+        if (request.getMessageIds() != null && !request.getMessageIds().isEmpty()) {
+            return markMessagesAsRead(userId, request.getMessageIds());
+        }
+        if (request.getFriendId() != null) {
+            return markConversationAsRead(userId, request.getFriendId());
+        }
+        return Mono.error(new RuntimeException("Either messageIds or friendId is required"));
     }
 
     public Mono<Void> markConversationAsRead(Long userId, Long friendId) {
-        return messageRepository.findConversationMessages(userId, friendId)
-                .filter(message -> message.getReceiverId().equals(userId) && !message.getIsRead())
-                .flatMap(message -> {
-                    message.setIsRead(true);
-                    return messageRepository.save(message);
-                })
+        Mono<Void> markRead = conversationSummaryRepository.markConversationRead(userId, friendId)
+                .flatMap(summary -> recordReadState(summary).thenReturn(summary))
+                .as(transactionalOperator::transactional)
+                .doOnNext(summary -> publishUnreadCount(summary))
+                .hasElement()
+                // Most calls come from clients re-opening a conversation that was already read
+                .doOnNext(updated -> meterRegistry.counter(MARK_READ_COUNTER,
+                        "result", updated ? "updated" : "unchanged").increment())
                 .then();
+        return timed("mark-read", markRead);
     }
 
-    private Mono<MessageDto> mapToMessageDto(Message message) {
-        Mono<User> senderMono = userRepository.findById(message.getSenderId());
-        Mono<User> receiverMono = userRepository.findById(message.getReceiverId());
-        
-        return Mono.zip(senderMono, receiverMono)
-                .map(tuple -> MessageDto.builder()
-                        .id(message.getId())
-                        .senderId(message.getSenderId())
-                        .receiverId(message.getReceiverId())
-                        .content(message.getContent())
-                        .messageType(message.getMessageType())
-                        .isRead(message.getIsRead())
-                        .createdAt(message.getCreatedAt())
-                        .sender(mapToUserDto(tuple.getT1()))
-                        .receiver(mapToUserDto(tuple.getT2()))
-                        .build());
-    }
-
-    private UserDto mapToUserDto(User user) {
-        return UserDto.builder()
-                .id(user.getId())
-                .email(user.getEmail())
-                .username(user.getUsername())
-                .fullName(user.getFullName())
-                .phoneNumber(user.getPhoneNumber())
-                .avatarUrl(user.getAvatarUrl())
-                .status(user.getStatus())
-                .bio(user.getBio())
-                .isOnline(user.getIsOnline())
-                .lastSeen(user.getLastSeen())
+    private Mono<Void> markMessagesAsRead(Long userId, Collection<Long> messageIds) {
+        return conversationSummaryRepository.advanceReadWatermarks(userId, messageIds)
+                .concatMap(summary -> recordReadState(summary).thenReturn(summary))
+                .as(transactionalOperator::transactional)
+                .doOnNext(summary -> publishUnreadCount(summary))
+                .then();
+    }
+
+    /**
+     * Publishes a message sent through another node to the participants' sessions on this one.
+     * Nothing is loaded unless one of them is connected here; list versions are bumped either
+     * way so this node's ETags do not answer 304 for a changed conversation list.
+     */
+    public Mono<Void> relayMessageCreated(Long messageId, LocalDateTime messageAt, Long senderId, Long receiverId) {
+        if (!eventBus.isConnected(senderId) && !eventBus.isConnected(receiverId)) {
+            listVersions.bump(senderId, ListKind.CONVERSATIONS);
+            listVersions.bump(receiverId, ListKind.CONVERSATIONS);
+            return Mono.empty();
+        }
+        Mono<ConversationSummary> receiverSummary = conversationSummaryRepository.findConversation(senderId, receiverId)
+                .filter(summary -> summary.getUserId().equals(receiverId))
+                .next();
+        return messageRepository.findByIdAndCreatedAt(messageId, messageAt)
+                .zipWith(receiverSummary)
+                .flatMap(saved -> userBatchLoader.loadOne(saved.getT1(), this::participants,
+                                (message, users) -> messageMapper.toDto(message, users, false))
+                        .doOnNext(messageDto -> publishMessageCreated(messageDto, saved.getT2())))
+                .then();
+    }
+
+    /**
+     * Publishes read state changed through another node to the reader's sessions on this one.
+     */
+    public Mono<Void> relayConversationRead(Long userId, Long friendId) {
+        if (!eventBus.isConnected(userId)) {
+            listVersions.bump(userId, ListKind.CONVERSATIONS);
+            return Mono.empty();
+        }
+        return conversationSummaryRepository.findConversation(userId, friendId)
+                .filter(summary -> summary.getUserId().equals(userId))
+                .doOnNext(this::publishUnreadCount)
+                .then();
+    }
+
+    /**
+     * Records saved messages in both participants' summaries and journals and notifies the
+     * other nodes, a few statements for the whole list. Returns each message with its
+     * receiver's summary, in list order.
+     */
+    private Mono<List<SavedMessage>> recordSent(List<Message> messages) {
+        int size = messages.size();
+        Long[] ids = new Long[size];
+        Long[] senderIds = new Long[size];
+        Long[] receiverIds = new Long[size];
+        String[] contents = new String[size];
+        LocalDateTime[] createdAt = new LocalDateTime[size];
+        for (int i = 0; i < size; i++) {
+            Message message = messages.get(i);
+            ids[i] = message.getId();
+            senderIds[i] = message.getSenderId();
+            receiverIds[i] = message.getReceiverId();
+            contents[i] = message.getContent();
+            createdAt[i] = message.getCreatedAt();
+        }
+
+        return conversationSummaryRepository.recordMessages(ids, senderIds, receiverIds, contents, createdAt)
+                .collectMap(summary -> List.of(summary.getUserId(), summary.getPeerId()))
+                .flatMap(summaries -> syncService.recordAll(journalEntries(messages))
+                        .then(clusterNotifications.publishAll(messages.stream()
+                                .map(message -> clusterNotifications.messageEvent(message.getSenderId(),
+                                        message.getReceiverId(), message.getId(), message.getCreatedAt()))
+                                .toList()))
+                        .then(Mono.fromSupplier(() -> messages.stream()
+                                .map(message -> new SavedMessage(message,
+                                        summaries.get(List.of(message.getReceiverId(), message.getSenderId()))))
+                                .toList())));
+    }
+
+    /**
+     * Read watermarks of both participants, keyed by reader.
+     */
+    private Mono<Map<Long, ReadWatermark>> readWatermarks(Long userId, Long friendId) {
+        return conversationSummaryRepository.findConversation(userId, friendId)
+                .collectMap(ConversationSummary::getUserId, ReadWatermark::of);
+    }
+
+    private List<SyncService.Entry> journalEntries(List<Message> messages) {
+        List<SyncService.Entry> entries = new ArrayList<>(messages.size() * 2);
+        for (Message message : messages) {
+            // Users are left out; clients resolve them from their friend list
+            MessageDto payload = MessageDto.builder()
+                    .id(message.getId())
+                    .senderId(message.getSenderId())
+                    .receiverId(message.getReceiverId())
+                    .content(message.getContent())
+                    .messageType(message.getMessageType())
+                    .isRead(false)
+                    .createdAt(message.getCreatedAt())
+                    .build();
+            entries.add(new SyncService.Entry(message.getSenderId(), ChatEvent.MESSAGE_CREATED, payload));
+            entries.add(new SyncService.Entry(message.getReceiverId(), ChatEvent.MESSAGE_CREATED, payload));
+        }
+        return entries;
+    }
+
+    private Mono<Void> recordReadState(ConversationSummary summary) {
+        return syncService.record(summary.getUserId(), ChatEvent.CONVERSATION_UPDATED, readStateDelta(summary))
+                .then(clusterNotifications.publish(ChatEvent.CONVERSATION_UPDATED,
+                        summary.getUserId(), summary.getPeerId()));
+    }
+
+    private record SavedMessage(Message message, ConversationSummary receiverSummary) {
+    }
+
+    private void publishMessageCreated(MessageDto messageDto, ConversationSummary receiverSummary) {
+        Long senderId = messageDto.getSenderId();
+        Long receiverId = messageDto.getReceiverId();
+        ChatEvent event = ChatEvent.of(ChatEvent.MESSAGE_CREATED, messageDto);
+        eventBus.publish(receiverId, event);
+        eventBus.publish(senderId, event);
+
+        MessageDto lastMessage = MessageDto.builder()
+                .id(messageDto.getId())
+                .content(messageDto.getContent())
+                .createdAt(messageDto.getCreatedAt())
+                .senderId(senderId)
+                .receiverId(receiverId)
+                .isRead(messageDto.getIsRead())
+                .build();
+
+        // Sending does not change the sender's own unread count for this conversation
+        publishConversationDelta(senderId, ConversationDeltaDto.builder()
+                .friendId(receiverId)
+                .friend(messageDto.getReceiver())
+                .lastMessage(lastMessage)
+                .build());
+        publishConversationDelta(receiverId, ConversationDeltaDto.builder()
+                .friendId(senderId)
+                .friend(messageDto.getSender())
+                .lastMessage(lastMessage)
+                .unreadCount(receiverSummary.getUnreadCount())
+                .build());
+    }
+
+    private void publishUnreadCount(ConversationSummary summary) {
+        publishConversationDelta(summary.getUserId(), readStateDelta(summary));
+    }
+
+    private ConversationDeltaDto readStateDelta(ConversationSummary summary) {
+        return ConversationDeltaDto.builder()
+                .friendId(summary.getPeerId())
+                .unreadCount(summary.getUnreadCount())
+                .lastReadMessageId(summary.getLastReadMessageId())
+                .lastReadMessageAt(summary.getLastReadMessageAt())
                 .build();
     }
+
+    private void publishConversationDelta(Long userId, ConversationDeltaDto delta) {
+        listVersions.bump(userId, ListKind.CONVERSATIONS);
+        eventBus.publish(userId, ChatEvent.of(ChatEvent.CONVERSATION_UPDATED, delta));
+    }
+
+    /**
+     * Records the latency of {@code work} in {@code chatflow.messages.operations}, from
+     * subscription until it completes, fails or is cancelled.
+     */
+    private <T> Mono<T> timed(String operation, Mono<T> work) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return work.doFinally(signal -> stop(sample, operation, signal));
+        });
+    }
+
+    private <T> Flux<T> timed(String operation, Flux<T> work) {
+        return Flux.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return work.doFinally(signal -> stop(sample, operation, signal));
+        });
+    }
+
+    private void stop(Timer.Sample sample, String operation, SignalType signal) {
+        String outcome = switch (signal) {
+            case ON_COMPLETE -> "success";
+            case ON_ERROR -> "error";
+            default -> "cancelled";
+        };
+        sample.stop(meterRegistry.timer(OPERATIONS_TIMER, "operation", operation, "outcome", outcome));
+    }
+
+    private ServerSentEvent<Object> toServerSentEvent(ChatEvent event) {
+        return ServerSentEvent.builder(event.getPayload())
+                .event(event.getType())
+                .build();
+    }
+
+    private List<Long> participants(Message message) {
+        return List.of(message.getSenderId(), message.getReceiverId());
+    }
 }
@@ -0,0 +1,194 @@
+package com.hotelbooking.chatflow.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hotelbooking.chatflow.dto.SyncEventDto;
+import com.hotelbooking.chatflow.dto.SyncResponse;
+import com.hotelbooking.chatflow.entity.UserEvent;
+import com.hotelbooking.chatflow.repository.UserEventRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Per-user change journal. Every change a client has to know about is appended under the
+ * user's next sequence number, so a client holding a seq can catch up on exactly what it missed.
+ * Events older than {@code chatflow.sync.retention-days} are deleted; a client asking for
+ * events from before that horizon is told to reload everything instead.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SyncService {
+
+    private static final int MAX_SYNC_LIMIT = 1000;
+
+    /**
+     * Reserves each user's seqs with one upsert of their sequence row (in user id order, so
+     * concurrent appends lock rows in the same order) and numbers the user's events after it.
+     */
+    private static final String APPEND_ALL_SQL =
+            "WITH e AS (" +
+            "    SELECT * FROM UNNEST(CAST(:userIds AS BIGINT[]), CAST(:types AS VARCHAR[]), CAST(:payloads AS TEXT[])) " +
+            "    WITH ORDINALITY AS e(user_id, type, payload, ord)), " +
+            "counts AS (SELECT user_id, COUNT(*) AS n FROM e GROUP BY user_id), " +
+            "next AS (" +
+            "    INSERT INTO user_event_sequences (user_id, last_seq) " +
+            "    SELECT user_id, n FROM counts ORDER BY user_id " +
+            "    ON CONFLICT (user_id) DO UPDATE SET last_seq = user_event_sequences.last_seq + EXCLUDED.last_seq " +
+            "    RETURNING user_id, last_seq) " +
+            "INSERT INTO user_events (user_id, seq, type, payload, created_at) " +
+            "SELECT e.user_id, next.last_seq - counts.n + ROW_NUMBER() OVER (PARTITION BY e.user_id ORDER BY e.ord), " +
+            "e.type, e.payload, NOW() " +
+            "FROM e JOIN counts USING (user_id) JOIN next USING (user_id)";
+
+    /**
+     * Deletes up to {@code :limit} of the oldest expired events and raises each affected user's
+     * pruned seq in the same statement, locking sequence rows in user id order like appends do.
+     */
+    private static final String PRUNE_SQL =
+            "WITH doomed AS (" +
+            "    SELECT user_id, seq FROM user_events " +
+            "    WHERE created_at < NOW() - make_interval(days => :retentionDays) " +
+            "    ORDER BY created_at LIMIT :limit), " +
+            "deleted AS (" +
+            "    DELETE FROM user_events e USING doomed d WHERE e.user_id = d.user_id AND e.seq = d.seq " +
+            "    RETURNING e.user_id, e.seq), " +
+            "horizons AS (" +
+            "    INSERT INTO user_event_sequences (user_id, last_seq, pruned_seq) " +
+            "    SELECT user_id, MAX(seq), MAX(seq) FROM deleted GROUP BY user_id ORDER BY user_id " +
+            "    ON CONFLICT (user_id) DO UPDATE " +
+            "    SET pruned_seq = GREATEST(user_event_sequences.pruned_seq, EXCLUDED.pruned_seq)) " +
+            "SELECT COUNT(*) AS deleted FROM deleted";
+
+    private final UserEventRepository userEventRepository;
+    private final DatabaseClient databaseClient;
+    private final ObjectMapper objectMapper;
+
+    @Value("${chatflow.sync.retention-days:30}")
+    private int retentionDays;
+
+    @Value("${chatflow.sync.prune-batch-size:5000}")
+    private int pruneBatchSize;
+
+    public record Entry(Long userId, String type, Object payload) {
+    }
+
+    /**
+     * Appends an event to the user's journal. Call inside the transaction that makes the change.
+     */
+    public Mono<Void> record(Long userId, String type, Object payload) {
+        return Mono.fromCallable(() -> objectMapper.writeValueAsString(payload))
+                .flatMap(json -> userEventRepository.append(userId, type, json))
+                .then();
+    }
+
+    /**
+     * Appends several events in one statement; each user's events get consecutive seqs in
+     * list order. Call inside the transaction that makes the changes.
+     */
+    public Mono<Void> recordAll(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return Mono.empty();
+        }
+        return Flux.fromIterable(entries)
+                .concatMap(entry -> Mono.fromCallable(() -> objectMapper.writeValueAsString(entry.payload())))
+                .collectList()
+                .flatMap(payloads -> databaseClient.sql(APPEND_ALL_SQL)
+                        .bind("userIds", entries.stream().map(Entry::userId).toArray(Long[]::new))
+                        .bind("types", entries.stream().map(Entry::type).toArray(String[]::new))
+                        .bind("payloads", payloads.toArray(String[]::new))
+                        .then());
+    }
+
+    /**
+     * Returns up to {@code limit} events after {@code since}. Without {@code since} no events
+     * are returned, only the current position to start syncing from; the same goes for a
+     * {@code since} below the pruned horizon, flagged with {@code resyncRequired}.
+     */
+    public Mono<SyncResponse> sync(Long userId, Long since, int limit) {
+        if (since == null) {
+            return currentPosition(userId, false);
+        }
+
+        int pageSize = Math.max(1, Math.min(limit, MAX_SYNC_LIMIT));
+        // One extra row tells whether another page follows
+        Mono<List<SyncEventDto>> events = userEventRepository.findAfter(userId, since, pageSize + 1)
+                .map(this::mapToSyncEventDto)
+                .collectList();
+        // The horizon is read after the events, so a prune in between can only cause a needless resync
+        return events.zipWhen(ignored -> userEventRepository.findPrunedSeq(userId))
+                .flatMap(result -> {
+                    if (since < result.getT2()) {
+                        return currentPosition(userId, true);
+                    }
+                    boolean hasMore = result.getT1().size() > pageSize;
+                    List<SyncEventDto> page = hasMore ? result.getT1().subList(0, pageSize) : result.getT1();
+                    return Mono.just(SyncResponse.builder()
+                            .events(page)
+                            .nextSince(page.isEmpty() ? since : page.get(page.size() - 1).getSeq())
+                            .hasMore(hasMore)
+                            .resyncRequired(false)
+                            .build());
+                });
+    }
+
+    /**
+     * Deletes expired events in batches of {@code chatflow.sync.prune-batch-size}, each in its
+     * own statement, until none are left. A retention of 0 days keeps every event.
+     */
+    @Scheduled(fixedDelayString = "${chatflow.sync.prune-interval-ms:3600000}")
+    public Mono<Void> pruneJournal() {
+        if (retentionDays <= 0) {
+            return Mono.empty();
+        }
+        return databaseClient.sql(PRUNE_SQL)
+                .bind("retentionDays", retentionDays)
+                .bind("limit", pruneBatchSize)
+                .map(row -> row.get("deleted", Long.class))
+                .one()
+                .repeat()
+                .takeUntil(deleted -> deleted < pruneBatchSize)
+                .reduce(0L, Long::sum)
+                .doOnNext(total -> {
+                    if (total > 0) {
+                        log.info("Deleted {} sync events older than {} days", total, retentionDays);
+                    }
+                })
+                .onErrorResume(e -> {
+                    log.warn("Sync journal pruning failed, will retry on next run", e);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private Mono<SyncResponse> currentPosition(Long userId, boolean resyncRequired) {
+        return userEventRepository.findLatestSeq(userId)
+                .map(latest -> SyncResponse.builder()
+                        .events(List.of())
+                        .nextSince(latest)
+                        .hasMore(false)
+                        .resyncRequired(resyncRequired)
+                        .build());
+    }
+
+    private SyncEventDto mapToSyncEventDto(UserEvent event) {
+        try {
+            return SyncEventDto.builder()
+                    .seq(event.getSeq())
+                    .type(event.getType())
+                    .payload(objectMapper.readTree(event.getPayload()))
+                    .createdAt(event.getCreatedAt())
+                    .build();
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Invalid payload in sync event " + event.getSeq(), e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.hotelbooking.chatflow.service;
+
+import com.hotelbooking.chatflow.entity.User;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Hydrates the users referenced by a stream of rows with one {@link UserProfileCache} lookup,
+ * and at most one {@code WHERE id IN (...)}, per batch instead of one query per row. Users
+ * loaded for earlier batches are reused for the rest of the same subscription, i.e. the same
+ * request.
+ */
+@Component
+@RequiredArgsConstructor
+public class UserBatchLoader {
+
+    private final UserProfileCache userProfileCache;
+
+    @Value("${chatflow.user-loader.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * Maps every element together with the users it references, preserving order. Elements
+     * for which the mapper returns null (e.g. a referenced user no longer exists) are dropped.
+     */
+    public <T, R> Flux<R> load(Flux<T> source,
+                               Function<T, Collection<Long>> userIds,
+                               BiFunction<T, Map<Long, User>, R> mapper) {
+        return Flux.defer(() -> {
+            Map<Long, User> loaded = new HashMap<>();
+            return source.buffer(batchSize)
+                    .concatMap(batch -> fetchMissing(batch, userIds, loaded)
+                            .thenMany(Flux.fromIterable(batch)
+                                    .<R>handle((item, sink) -> {
+                                        R mapped = mapper.apply(item, loaded);
+                                        if (mapped != null) {
+                                            sink.next(mapped);
+                                        }
+                                    })));
+        });
+    }
+
+    public <T, R> Mono<R> loadOne(T item,
+                                  Function<T, Collection<Long>> userIds,
+                                  BiFunction<T, Map<Long, User>, R> mapper) {
+        return load(Flux.just(item), userIds, mapper).next();
+    }
+
+    private <T> Mono<Void> fetchMissing(List<T> batch, Function<T, Collection<Long>> userIds, Map<Long, User> loaded) {
+        Set<Long> missing = new HashSet<>();
+        for (T item : batch) {
+            for (Long id : userIds.apply(item)) {
+                if (id != null && !loaded.containsKey(id)) {
+                    missing.add(id);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return Mono.empty();
+        }
+        return userProfileCache.getAll(missing)
+                .doOnNext(loaded::putAll)
+                .then();
+    }
+}
@@ -0,0 +1,49 @@
+package com.hotelbooking.chatflow.service;
+
+import com.hotelbooking.chatflow.dto.UserDto;
+import com.hotelbooking.chatflow.dto.UserSearchDto;
+import com.hotelbooking.chatflow.entity.User;
+import com.hotelbooking.chatflow.realtime.PresenceRegistry;
+import com.hotelbooking.chatflow.realtime.PresenceRegistry.Presence;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+@Component
+@RequiredArgsConstructor
+public class UserMapper {
+
+    private final PresenceRegistry presenceRegistry;
+
+    public UserDto toDto(User user) {
+        // Presence is written back lazily, so the registry is fresher than the row
+        Presence presence = presenceRegistry.get(user.getId());
+        return UserDto.builder()
+                .id(user.getId())
+                .email(user.getEmail())
+                .username(user.getUsername())
+                .fullName(user.getFullName())
+                .phoneNumber(user.getPhoneNumber())
+                .avatarUrl(user.getAvatarUrl())
+                .status(user.getStatus())
+                .bio(user.getBio())
+                .isOnline(presence != null ? presence.online() : user.getIsOnline())
+                .lastSeen(presence != null ? presence.lastSeen() : user.getLastSeen())
+                .build();
+    }
+
+    public UserSearchDto toSearchDto(User user, String friendshipStatus) {
+        Presence presence = presenceRegistry.get(user.getId());
+        return UserSearchDto.builder()
+                .id(user.getId())
+                .email(user.getEmail())
+                .username(user.getUsername())
+                .fullName(user.getFullName())
+                .phoneNumber(user.getPhoneNumber())
+                .avatarUrl(user.getAvatarUrl())
+                .status(user.getStatus())
+                .isOnline(presence != null ? presence.online() : user.getIsOnline())
+                .friendshipStatus(friendshipStatus)
+                .isFriend("ACCEPTED".equals(friendshipStatus))
+                .build();
+    }
+}
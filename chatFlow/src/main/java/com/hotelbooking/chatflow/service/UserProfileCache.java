@@ -0,0 +1,74 @@
+package com.hotelbooking.chatflow.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hotelbooking.chatflow.entity.User;
+import com.hotelbooking.chatflow.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Application-wide, size- and TTL-bounded cache of user rows. Cached instances are shared
+ * and must not be modified; presence is not read from them but from {@code PresenceRegistry}.
+ * Hit, miss and eviction counts are published as {@code cache.*} metrics with {@code cache=users}.
+ */
+@Component
+public class UserProfileCache {
+
+    private final UserRepository userRepository;
+    private final Cache<Long, User> cache;
+
+    public UserProfileCache(UserRepository userRepository,
+                            MeterRegistry meterRegistry,
+                            @Value("${chatflow.user-cache.maximum-size:50000}") long maximumSize,
+                            @Value("${chatflow.user-cache.ttl-ms:600000}") long ttlMs) {
+        this.userRepository = userRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "users");
+    }
+
+    public Mono<User> get(Long userId) {
+        User cached = cache.getIfPresent(userId);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        return userRepository.findById(userId)
+                .doOnNext(user -> cache.put(user.getId(), user));
+    }
+
+    /**
+     * Returns the users that exist among the given ids, loading all misses with one query.
+     */
+    public Mono<Map<Long, User>> getAll(Collection<Long> userIds) {
+        Map<Long, User> found = new HashMap<>(cache.getAllPresent(userIds));
+        Set<Long> missing = new HashSet<>(userIds);
+        missing.removeAll(found.keySet());
+        if (missing.isEmpty()) {
+            return Mono.just(found);
+        }
+        return userRepository.findAllById(missing)
+                .doOnNext(user -> {
+                    cache.put(user.getId(), user);
+                    found.put(user.getId(), user);
+                })
+                .then(Mono.fromSupplier(() -> found));
+    }
+
+    public void invalidate(Long userId) {
+        cache.invalidate(userId);
+    }
+}
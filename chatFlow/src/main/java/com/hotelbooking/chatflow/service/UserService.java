@@ -1,47 +1,80 @@
 package com.hotelbooking.chatflow.service;
 
-import com.hotelbooking.chatflow.repository.UserRepository;
+import com.hotelbooking.chatflow.dto.ChatEvent;
+import com.hotelbooking.chatflow.dto.ConversationDeltaDto;
+import com.hotelbooking.chatflow.realtime.ChatEventBus;
+import com.hotelbooking.chatflow.realtime.ClusterNotifications;
+import com.hotelbooking.chatflow.realtime.ListVersions;
+import com.hotelbooking.chatflow.realtime.ListVersions.ListKind;
+import com.hotelbooking.chatflow.realtime.PresenceRegistry;
+import com.hotelbooking.chatflow.realtime.PresenceRegistry.Presence;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
 import java.time.LocalDateTime;
+import java.util.stream.LongStream;
 
 @Service
 @RequiredArgsConstructor
 public class UserService {
 
-    private final UserRepository userRepository;
+    private final PresenceRegistry presenceRegistry;
+    private final FriendGraph friendGraph;
+    private final ChatEventBus eventBus;
+    private final ListVersions listVersions;
+    private final ClusterNotifications clusterNotifications;
 
     public Mono<Void> setUserOnline(Long userId) {
-        return userRepository.findById(userId)
-                .flatMap(user -> {
-                    user.setIsOnline(true);
-                    user.setLastSeen(LocalDateTime.now());
-                    user.setUpdatedAt(LocalDateTime.now());
-                    return userRepository.save(user);
-                })
-                .then();
+        return updatePresence(userId, true);
     }
 
     public Mono<Void> setUserOffline(Long userId) {
-        return userRepository.findById(userId)
-                .flatMap(user -> {
-                    user.setIsOnline(false);
-                    user.setLastSeen(LocalDateTime.now());
-                    user.setUpdatedAt(LocalDateTime.now());
-                    return userRepository.save(user);
-                })
-                .then();
+        return updatePresence(userId, false);
     }
 
     public Mono<Void> updateHeartbeat(Long userId) {
-        return userRepository.findById(userId)
-                .flatMap(user -> {
-                    user.setIsOnline(true);
-                    user.setLastSeen(LocalDateTime.now());
-                    user.setUpdatedAt(LocalDateTime.now());
-                    return userRepository.save(user);
+        return updatePresence(userId, true);
+    }
+
+    private Mono<Void> updatePresence(Long userId, boolean online) {
+        return Mono.defer(() -> {
+            Presence presence = new Presence(online, LocalDateTime.now());
+            Presence previous = presenceRegistry.update(userId, presence);
+            if (previous != null && previous.online() == online) {
+                return Mono.empty();
+            }
+            return publishPresence(userId, presence)
+                    .then(clusterNotifications.publishPresence(userId, online));
+        });
+    }
+
+    /**
+     * Publishes a presence change made through another node to friends connected to this one.
+     */
+    public Mono<Void> relayPresenceChanged(Long userId, boolean online) {
+        return Mono.defer(() -> {
+            Presence presence = new Presence(online, LocalDateTime.now());
+            Presence previous = presenceRegistry.remember(userId, presence);
+            if (previous != null && previous.online() == online) {
+                return Mono.empty();
+            }
+            return publishPresence(userId, presence);
+        });
+    }
+
+    private Mono<Void> publishPresence(Long userId, Presence presence) {
+        ChatEvent event = ChatEvent.of(ChatEvent.PRESENCE_CHANGED, ConversationDeltaDto.builder()
+                .friendId(userId)
+                .isOnline(presence.online())
+                .lastSeen(presence.lastSeen())
+                .build());
+        
+        return friendGraph.get(userId)
+                .flatMapIterable(adjacency -> LongStream.of(adjacency.friendIds()).boxed().toList())
+                .doOnNext(friendId -> {
+                    listVersions.bump(friendId, ListKind.CONVERSATIONS, ListKind.FRIENDS);
+                    eventBus.publish(friendId, event);
                 })
                 .then();
     }
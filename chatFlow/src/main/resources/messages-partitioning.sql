@@ -0,0 +1,45 @@
+-- Runs before schema.sql. PL/pgSQL bodies contain semicolons, so statements here end with ^;
+
+-- Creates the monthly partition of messages containing the given day, if it does not exist yet
+CREATE OR REPLACE FUNCTION create_messages_partition(day DATE) RETURNS VOID AS $$
+DECLARE
+    month_start DATE := date_trunc('month', day);
+BEGIN
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF messages FOR VALUES FROM (%L) TO (%L)',
+                   'messages_p' || to_char(month_start, 'YYYYMM'),
+                   month_start,
+                   month_start + INTERVAL '1 month');
+END
+$$ LANGUAGE plpgsql
+^;
+
+-- Converts a messages table created before partitioning into the partitioned layout, keeping ids
+DO $$
+DECLARE
+    partition_month DATE;
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_class WHERE oid = to_regclass('messages') AND relkind = 'r') THEN
+        ALTER TABLE messages RENAME TO messages_unpartitioned;
+        ALTER TABLE messages_unpartitioned RENAME CONSTRAINT messages_pkey TO messages_unpartitioned_pkey;
+        DROP INDEX IF EXISTS idx_messages_sender, idx_messages_receiver, idx_messages_created_at, idx_messages_conversation;
+
+        CREATE TABLE messages (
+            LIKE messages_unpartitioned INCLUDING DEFAULTS,
+            PRIMARY KEY (id, created_at),
+            FOREIGN KEY (sender_id) REFERENCES users(id) ON DELETE CASCADE,
+            FOREIGN KEY (receiver_id) REFERENCES users(id) ON DELETE CASCADE
+        ) PARTITION BY RANGE (created_at);
+        ALTER SEQUENCE messages_id_seq OWNED BY messages.id;
+
+        UPDATE messages_unpartitioned SET created_at = CURRENT_TIMESTAMP WHERE created_at IS NULL;
+        FOR partition_month IN SELECT DISTINCT date_trunc('month', created_at)::date FROM messages_unpartitioned LOOP
+            PERFORM create_messages_partition(partition_month);
+        END LOOP;
+        INSERT INTO messages (id, sender_id, receiver_id, content, message_type, is_read, created_at)
+        SELECT id, sender_id, receiver_id, content, message_type, is_read, created_at FROM messages_unpartitioned;
+
+        DROP TABLE messages_unpartitioned;
+    END IF;
+END
+$$
+^;
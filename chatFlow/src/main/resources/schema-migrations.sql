@@ -0,0 +1,48 @@
+-- Runs after schema.sql. One-off upgrades of databases created by earlier versions: each checks
+-- whether it has been applied already, so later starts do not touch the data.
+-- PL/pgSQL bodies contain semicolons, so statements here end with ^;
+
+-- Canonical friendship edges: drop reversed duplicates (keeping an accepted edge over a pending one),
+-- store every edge as (lower id, higher id), then let the pair index reject reversed duplicates and
+-- fill the per-user projection. Friendship writes wait while this runs, so older nodes still
+-- running during a rolling upgrade cannot add a reversed edge in between.
+DO $$
+BEGIN
+    IF to_regclass('idx_friendships_pair') IS NULL THEN
+        LOCK TABLE friendships IN SHARE ROW EXCLUSIVE MODE;
+        -- Another node may have finished it while this one waited for the lock
+        IF to_regclass('idx_friendships_pair') IS NULL THEN
+            DELETE FROM friendships f USING friendships r
+            WHERE f.user_id = r.friend_id AND f.friend_id = r.user_id AND f.user_id > f.friend_id
+              AND (r.status = 'ACCEPTED' OR f.status <> 'ACCEPTED');
+            DELETE FROM friendships r USING friendships f
+            WHERE f.user_id = r.friend_id AND f.friend_id = r.user_id AND r.user_id < r.friend_id;
+            UPDATE friendships SET user_id = friend_id, friend_id = user_id WHERE user_id > friend_id;
+
+            -- Rejects a reversed duplicate even if a writer forgets to canonicalize
+            CREATE UNIQUE INDEX idx_friendships_pair ON friendships(LEAST(user_id, friend_id), GREATEST(user_id, friend_id));
+
+            INSERT INTO user_friends (user_id, friend_id, friendship_id, status, updated_at)
+            SELECT user_id, friend_id, id, status, updated_at FROM friendships
+            UNION ALL
+            SELECT friend_id, user_id, id, status, updated_at FROM friendships
+            ON CONFLICT (user_id, friend_id) DO NOTHING;
+        END IF;
+    END IF;
+END
+$$
+^;
+
+-- Read watermarks became (created_at, id) tuples: record the time of each watermark's message
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM information_schema.columns
+                   WHERE table_name = 'conversation_summaries' AND column_name = 'last_read_message_at') THEN
+        ALTER TABLE conversation_summaries ADD COLUMN IF NOT EXISTS last_read_message_at TIMESTAMP;
+        UPDATE conversation_summaries cs SET last_read_message_at = m.created_at
+        FROM messages m
+        WHERE m.id = cs.last_read_message_id AND cs.last_read_message_id > 0 AND cs.last_read_message_at IS NULL;
+    END IF;
+END
+$$
+^;
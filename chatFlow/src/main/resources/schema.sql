@@ -1,3 +1,6 @@
+-- Trigram matching for user search
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
 -- Create users table
 CREATE TABLE IF NOT EXISTS users (
     id BIGSERIAL PRIMARY KEY,
@@ -15,20 +18,25 @@ CREATE TABLE IF NOT EXISTS users (
     updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
 
--- Create messages table
+-- Create messages table, partitioned by month (see messages-partitioning.sql and MessagePartitionMaintenance)
 CREATE TABLE IF NOT EXISTS messages (
-    id BIGSERIAL PRIMARY KEY,
+    id BIGSERIAL,
     sender_id BIGINT NOT NULL,
     receiver_id BIGINT NOT NULL,
     content TEXT NOT NULL,
     message_type VARCHAR(50) DEFAULT 'text',
     is_read BOOLEAN DEFAULT false,
-    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id, created_at),
     FOREIGN KEY (sender_id) REFERENCES users(id) ON DELETE CASCADE,
     FOREIGN KEY (receiver_id) REFERENCES users(id) ON DELETE CASCADE
-);
+) PARTITION BY RANGE (created_at);
 
--- Create friendships table
+-- Partitions for this month and the next three
+SELECT create_messages_partition(CAST(month AS DATE))
+FROM generate_series(date_trunc('month', CURRENT_DATE), date_trunc('month', CURRENT_DATE) + INTERVAL '3 months', INTERVAL '1 month') AS month;
+
+-- Create friendships table; each edge is stored once as (lower id, higher id), requester_id keeps the direction
 CREATE TABLE IF NOT EXISTS friendships (
     id BIGSERIAL PRIMARY KEY,
     user_id BIGINT NOT NULL,
@@ -43,15 +51,105 @@ CREATE TABLE IF NOT EXISTS friendships (
     UNIQUE(user_id, friend_id)
 );
 
+-- Create conversation summaries table (one row per user and conversation partner)
+CREATE TABLE IF NOT EXISTS conversation_summaries (
+    user_id BIGINT NOT NULL,
+    peer_id BIGINT NOT NULL,
+    last_message_id BIGINT,
+    last_message_preview VARCHAR(200),
+    last_message_sender_id BIGINT,
+    last_message_at TIMESTAMP,
+    unread_count INTEGER NOT NULL DEFAULT 0,
+    last_read_message_id BIGINT,
+    last_read_message_at TIMESTAMP,
+    last_read_at TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, peer_id),
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
+    FOREIGN KEY (peer_id) REFERENCES users(id) ON DELETE CASCADE
+);
+
+-- Per-user projection of friendships, one row per direction, for "my friends by status"
+CREATE TABLE IF NOT EXISTS user_friends (
+    user_id BIGINT NOT NULL,
+    friend_id BIGINT NOT NULL,
+    friendship_id BIGINT NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    updated_at TIMESTAMP,
+    PRIMARY KEY (user_id, friend_id),
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
+    FOREIGN KEY (friend_id) REFERENCES users(id) ON DELETE CASCADE,
+    FOREIGN KEY (friendship_id) REFERENCES friendships(id) ON DELETE CASCADE
+);
+
+-- Per-user change journal for delta sync; user_event_sequences hands out each user's next seq
+CREATE TABLE IF NOT EXISTS user_event_sequences (
+    user_id BIGINT PRIMARY KEY,
+    last_seq BIGINT NOT NULL,
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS user_events (
+    user_id BIGINT NOT NULL,
+    seq BIGINT NOT NULL,
+    type VARCHAR(50) NOT NULL,
+    payload TEXT NOT NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, seq),
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+);
+
+-- Read watermarks for databases created before they existed
+ALTER TABLE conversation_summaries ADD COLUMN IF NOT EXISTS last_read_message_id BIGINT;
+ALTER TABLE conversation_summaries ADD COLUMN IF NOT EXISTS last_read_at TIMESTAMP;
+
+-- Highest seq removed from the user's journal by retention; syncing from below it needs a resync
+ALTER TABLE user_event_sequences ADD COLUMN IF NOT EXISTS pruned_seq BIGINT NOT NULL DEFAULT 0;
+
 -- Create indexes for better performance
 CREATE INDEX IF NOT EXISTS idx_messages_sender ON messages(sender_id);
 CREATE INDEX IF NOT EXISTS idx_messages_receiver ON messages(receiver_id);
 CREATE INDEX IF NOT EXISTS idx_messages_created_at ON messages(created_at);
+-- Keyset pagination over one conversation, independent of who sent each message
+CREATE INDEX IF NOT EXISTS idx_messages_conversation ON messages(LEAST(sender_id, receiver_id), GREATEST(sender_id, receiver_id), created_at, id);
+CREATE INDEX IF NOT EXISTS idx_conversation_summaries_recent ON conversation_summaries(user_id, last_message_at DESC);
+-- Journal retention deletes the oldest events first
+CREATE INDEX IF NOT EXISTS idx_user_events_created_at ON user_events(created_at);
 CREATE INDEX IF NOT EXISTS idx_users_email ON users(email);
 CREATE INDEX IF NOT EXISTS idx_users_username ON users(username);
+-- User search: trigram indexes for substring matches, pattern indexes for short prefixes
+CREATE INDEX IF NOT EXISTS idx_users_username_trgm ON users USING GIN (LOWER(username) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_users_full_name_trgm ON users USING GIN (LOWER(full_name) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_users_email_trgm ON users USING GIN (LOWER(email) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_users_phone_number_trgm ON users USING GIN (phone_number gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_users_username_prefix ON users(LOWER(username) text_pattern_ops);
+CREATE INDEX IF NOT EXISTS idx_users_full_name_prefix ON users(LOWER(full_name) text_pattern_ops);
 CREATE INDEX IF NOT EXISTS idx_friendships_user ON friendships(user_id);
 CREATE INDEX IF NOT EXISTS idx_friendships_friend ON friendships(friend_id);
 CREATE INDEX IF NOT EXISTS idx_friendships_status ON friendships(status);
+-- idx_friendships_pair is created by schema-migrations.sql, once existing edges are canonical
+CREATE INDEX IF NOT EXISTS idx_user_friends_status ON user_friends(user_id, status, updated_at DESC);
+
+-- Backfill conversation summaries from existing messages (only while the table is still empty)
+INSERT INTO conversation_summaries (user_id, peer_id, last_message_id, last_message_preview, last_message_sender_id, last_message_at, unread_count)
+SELECT DISTINCT ON (c.user_id, c.peer_id)
+    c.user_id, c.peer_id, m.id, LEFT(m.content, 200), m.sender_id, m.created_at,
+    (SELECT COUNT(*) FROM messages u WHERE u.sender_id = c.peer_id AND u.receiver_id = c.user_id AND u.is_read = false)
+FROM (
+    SELECT id, sender_id AS user_id, receiver_id AS peer_id FROM messages
+    UNION ALL
+    SELECT id, receiver_id AS user_id, sender_id AS peer_id FROM messages
+) c
+JOIN messages m ON m.id = c.id
+WHERE NOT EXISTS (SELECT 1 FROM conversation_summaries)
+ORDER BY c.user_id, c.peer_id, m.created_at DESC, m.id DESC
+ON CONFLICT (user_id, peer_id) DO NOTHING;
+
+-- Derive missing read watermarks from the per-message read flags (their times are filled in by schema-migrations.sql)
+UPDATE conversation_summaries cs
+SET last_read_message_id = COALESCE((SELECT MAX(m.id) FROM messages m
+    WHERE m.sender_id = cs.peer_id AND m.receiver_id = cs.user_id AND m.is_read = true), 0)
+WHERE cs.last_read_message_id IS NULL;
 
 -- Insert demo users (passwords are hashed for 'password123')
 -- BCrypt hash: $2a$10$lfa8tZmlrJH/DxD/Ygjf4eFV1TbIOCif0BYwF3749dTT/HBQfWJfS
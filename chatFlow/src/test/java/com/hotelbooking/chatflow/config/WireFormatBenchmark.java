@@ -0,0 +1,118 @@
+package com.hotelbooking.chatflow.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.hotelbooking.chatflow.dto.MessageDto;
+import com.hotelbooking.chatflow.dto.UserDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encoding a message page as JSON and as Smile, each with and without gzip at the level
+ * the server compresses with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    @Param({"50", "200"})
+    private int size;
+
+    private ObjectMapper jsonMapper;
+    private ObjectMapper smileMapper;
+    private List<MessageDto> page;
+
+    @Setup
+    public void setUp() {
+        jsonMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        smileMapper = Jackson2ObjectMapperBuilder.smile()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+
+        LocalDateTime now = LocalDateTime.now();
+        UserDto alice = user(1, now);
+        UserDto bob = user(2, now);
+        page = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            boolean fromAlice = i % 2 == 0;
+            page.add(MessageDto.builder()
+                    .id((long) i + 1)
+                    .senderId(fromAlice ? 1L : 2L)
+                    .receiverId(fromAlice ? 2L : 1L)
+                    .content("Message number " + i + " in a fairly ordinary conversation")
+                    .messageType("text")
+                    .isRead(i < size - 5)
+                    .createdAt(now.minusMinutes(size - i))
+                    .sender(fromAlice ? alice : bob)
+                    .receiver(fromAlice ? bob : alice)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public byte[] json() throws IOException {
+        return jsonMapper.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] jsonGzip() throws IOException {
+        return gzip(json());
+    }
+
+    @Benchmark
+    public byte[] smile() throws IOException {
+        return smileMapper.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] smileGzip() throws IOException {
+        return gzip(smile());
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    private static UserDto user(long id, LocalDateTime now) {
+        return UserDto.builder()
+                .id(id)
+                .email("user" + id + "@example.com")
+                .username("user" + id)
+                .fullName("User Number " + id)
+                .phoneNumber("+1555000" + id)
+                .avatarUrl("https://example.com/avatars/" + id + ".png")
+                .status("online")
+                .bio("Bio of user " + id)
+                .isOnline(true)
+                .lastSeen(now.minusHours(id))
+                .build();
+    }
+}
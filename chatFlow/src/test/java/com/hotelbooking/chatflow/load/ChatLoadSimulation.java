@@ -0,0 +1,157 @@
+package com.hotelbooking.chatflow.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.hotelbooking.chatflow.ChatFlowApplication;
+import com.hotelbooking.chatflow.load.LatencyRecorder.EndpointReport;
+import com.hotelbooking.chatflow.load.LatencyRecorder.PhaseReport;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * End-to-end load simulation. Registers {@code load.users} virtual users, links each to
+ * {@code load.friends-per-user} friends, then runs them all for {@code load.duration-ms}
+ * (see {@link VirtualUser} for what each one does) and reports p50/p95/p99 latency and
+ * throughput per endpoint, on the console and as JSON under {@code load.output-dir}.
+ * <p>
+ * Without {@code load.base-url} the application is started in-process on a random port,
+ * against the database configured in application.yml; test users are not cleaned up.
+ * <pre>
+ * mvn -Pload test-compile exec:java -Dload.users=2000 -Dload.duration-ms=300000
+ * </pre>
+ */
+public final class ChatLoadSimulation {
+
+    private ChatLoadSimulation() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        LoadSettings settings = LoadSettings.fromSystemProperties();
+        ConfigurableApplicationContext application = null;
+        String baseUrl = settings.baseUrl();
+        if (baseUrl.isBlank()) {
+            application = SpringApplication.run(ChatFlowApplication.class,
+                    "--server.port=0",
+                    // Request-level debug logging would cost more than the requests themselves
+                    "--logging.level.com.hotelbooking.chatflow=INFO",
+                    "--logging.level.org.springframework.security=INFO",
+                    "--logging.level.io.r2dbc.postgresql=INFO");
+            baseUrl = "http://localhost:" + application.getEnvironment().getProperty("local.server.port");
+        }
+
+        ConnectionProvider connections = ConnectionProvider.builder("chatflow-load")
+                .maxConnections(settings.maxConnections())
+                .pendingAcquireMaxCount(-1)
+                .build();
+        WebClient client = WebClient.builder()
+                .baseUrl(baseUrl)
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections)))
+                .build();
+
+        try {
+            Path report = simulate(settings, baseUrl, client);
+            System.out.println("Report written to " + report.toAbsolutePath());
+        } finally {
+            connections.dispose();
+            if (application != null) {
+                application.close();
+            }
+        }
+    }
+
+    private static Path simulate(LoadSettings settings, String baseUrl, WebClient client) throws IOException {
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        Instant startedAt = Instant.now();
+
+        LatencyRecorder setupRecorder = new LatencyRecorder();
+        List<VirtualUser> users = new ArrayList<>(settings.users());
+        for (int i = 0; i < settings.users(); i++) {
+            users.add(new VirtualUser(i, runId, client, setupRecorder, settings));
+        }
+
+        System.out.printf("Registering %d users against %s%n", settings.users(), baseUrl);
+        long setupStart = System.nanoTime();
+        Flux.fromIterable(users)
+                .flatMap(VirtualUser::register, settings.setupConcurrency())
+                .blockLast();
+        // Each user befriends the next friendsPerUser / 2 users around a ring
+        Flux.range(0, users.size())
+                .flatMap(i -> Flux.range(1, settings.friendsPerUser() / 2)
+                        .concatMap(offset -> users.get(i).befriend(users.get((i + offset) % users.size()))
+                                .onErrorResume(error -> Mono.empty())), settings.setupConcurrency())
+                .blockLast();
+        PhaseReport setup = setupRecorder.report(Duration.ofNanos(System.nanoTime() - setupStart));
+
+        LatencyRecorder runRecorder = new LatencyRecorder();
+        users.forEach(user -> user.recordTo(runRecorder));
+
+        System.out.printf("Running %d users for %ds (ramp-up %ds)%n", users.size(),
+                settings.duration().toSeconds(), settings.rampUp().toSeconds());
+        Sinks.Empty<Void> stop = Sinks.empty();
+        long runStart = System.nanoTime();
+        Mono<Void> timer = Mono.delay(settings.duration())
+                .doOnNext(tick -> stop.tryEmitEmpty())
+                .then();
+        Flux.range(0, users.size())
+                .flatMap(i -> users.get(i).run(rampUpDelay(settings, i, users.size()), stop.asMono()),
+                        users.size())
+                .then()
+                .and(timer)
+                .block();
+        PhaseReport run = runRecorder.report(Duration.ofNanos(System.nanoTime() - runStart));
+
+        print("Setup", setup);
+        print("Run", run);
+        return write(settings, new Report(startedAt, baseUrl, settings, setup, run));
+    }
+
+    private static Duration rampUpDelay(LoadSettings settings, int index, int users) {
+        return Duration.ofMillis(settings.rampUp().toMillis() * index / users);
+    }
+
+    private static void print(String phase, PhaseReport report) {
+        System.out.printf("%n%s: %d requests, %d errors, %.1f req/s over %.1fs%n", phase,
+                report.requests(), report.errors(), report.throughputPerSecond(), report.durationSeconds());
+        System.out.printf("%-52s %9s %7s %9s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        for (EndpointReport endpoint : report.endpoints()) {
+            System.out.printf("%-52s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n",
+                    endpoint.endpoint(), endpoint.requests(), endpoint.errors(), endpoint.throughputPerSecond(),
+                    endpoint.p50Ms(), endpoint.p95Ms(), endpoint.p99Ms(), endpoint.maxMs());
+        }
+    }
+
+    private static Path write(LoadSettings settings, Report report) throws IOException {
+        Path directory = Path.of(settings.outputDirectory());
+        Files.createDirectories(directory);
+        Path file = directory.resolve("load-" + LocalDateTime.now()
+                .format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json");
+        new ObjectMapper()
+                .findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .disable(SerializationFeature.WRITE_DURATIONS_AS_TIMESTAMPS)
+                .writerWithDefaultPrettyPrinter()
+                .writeValue(file.toFile(), report);
+        return file;
+    }
+
+    record Report(Instant startedAt, String baseUrl, LoadSettings settings, PhaseReport setup, PhaseReport run) {
+    }
+}
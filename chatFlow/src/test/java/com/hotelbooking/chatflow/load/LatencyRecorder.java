@@ -0,0 +1,94 @@
+package com.hotelbooking.chatflow.load;
+
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps every response time per endpoint so percentiles are exact rather than estimated.
+ * A run of a few thousand users for a few minutes stays within a few million samples.
+ */
+final class LatencyRecorder {
+
+    private final Map<String, Samples> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * Times {@code call} from subscription until it completes or fails. 2xx and 304 count
+     * as successes; failures are recorded and propagated.
+     */
+    <T> Mono<T> time(String endpoint, Mono<T> call) {
+        Samples samples = endpoints.computeIfAbsent(endpoint, key -> new Samples());
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call
+                    .doOnSuccess(result -> samples.add(System.nanoTime() - start, false))
+                    .doOnError(error -> samples.add(System.nanoTime() - start, true));
+        });
+    }
+
+    PhaseReport report(Duration elapsed) {
+        double seconds = Math.max(elapsed.toNanos() / 1e9, 1e-9);
+        List<EndpointReport> reports = endpoints.entrySet().stream()
+                .map(entry -> entry.getValue().report(entry.getKey(), seconds))
+                .sorted(Comparator.comparing(EndpointReport::endpoint))
+                .toList();
+        long requests = reports.stream().mapToLong(EndpointReport::requests).sum();
+        long errors = reports.stream().mapToLong(EndpointReport::errors).sum();
+        return new PhaseReport(round(seconds), requests, errors, round(requests / seconds), reports);
+    }
+
+    record PhaseReport(double durationSeconds, long requests, long errors, double throughputPerSecond,
+                       List<EndpointReport> endpoints) {
+    }
+
+    record EndpointReport(String endpoint, long requests, long errors, double throughputPerSecond,
+                          double p50Ms, double p95Ms, double p99Ms, double maxMs) {
+    }
+
+    private static final class Samples {
+
+        private long[] nanos = new long[1024];
+        private int count;
+        private long errors;
+
+        synchronized void add(long elapsedNanos, boolean error) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = elapsedNanos;
+            if (error) {
+                errors++;
+            }
+        }
+
+        synchronized EndpointReport report(String endpoint, double seconds) {
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            return new EndpointReport(endpoint, count, errors, round(count / seconds),
+                    millis(percentile(sorted, 0.50)), millis(percentile(sorted, 0.95)),
+                    millis(percentile(sorted, 0.99)), millis(count == 0 ? 0 : sorted[count - 1]));
+        }
+
+        // Nearest-rank percentile
+        private static long percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(quantile * sorted.length);
+            return sorted[Math.max(rank, 1) - 1];
+        }
+
+        private static double millis(long nanos) {
+            return round(nanos / 1e6);
+        }
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,48 @@
+package com.hotelbooking.chatflow.load;
+
+import java.time.Duration;
+
+/**
+ * Knobs for {@link ChatLoadSimulation}, read from {@code -Dload.*} system properties.
+ * Intervals default to what the web client uses when its WebSocket is down.
+ */
+record LoadSettings(
+        String baseUrl,
+        int users,
+        int friendsPerUser,
+        Duration duration,
+        Duration rampUp,
+        Duration heartbeatInterval,
+        Duration listPollInterval,
+        Duration messagePollInterval,
+        Duration sendInterval,
+        Duration searchInterval,
+        int setupConcurrency,
+        int maxConnections,
+        String outputDirectory) {
+
+    static LoadSettings fromSystemProperties() {
+        LoadSettings settings = new LoadSettings(
+                System.getProperty("load.base-url", ""),
+                Integer.getInteger("load.users", 1000),
+                Integer.getInteger("load.friends-per-user", 4),
+                millis("load.duration-ms", 120000),
+                millis("load.ramp-up-ms", 30000),
+                millis("load.heartbeat-interval-ms", 30000),
+                millis("load.list-poll-interval-ms", 5000),
+                millis("load.message-poll-interval-ms", 3000),
+                millis("load.send-interval-ms", 15000),
+                millis("load.search-interval-ms", 60000),
+                Integer.getInteger("load.setup-concurrency", 32),
+                Integer.getInteger("load.max-connections", 2000),
+                System.getProperty("load.output-dir", "target/load-results"));
+        if (settings.friendsPerUser() % 2 != 0 || settings.friendsPerUser() >= settings.users()) {
+            throw new IllegalArgumentException("load.friends-per-user must be even and less than load.users");
+        }
+        return settings;
+    }
+
+    private static Duration millis(String property, long defaultValue) {
+        return Duration.ofMillis(Long.getLong(property, defaultValue));
+    }
+}
@@ -0,0 +1,276 @@
+package com.hotelbooking.chatflow.load;
+
+import com.hotelbooking.chatflow.dto.AuthResponse;
+import com.hotelbooking.chatflow.dto.FriendRequestDto;
+import com.hotelbooking.chatflow.dto.FriendshipDto;
+import com.hotelbooking.chatflow.dto.LoginRequest;
+import com.hotelbooking.chatflow.dto.MessageCursor;
+import com.hotelbooking.chatflow.dto.MessageDto;
+import com.hotelbooking.chatflow.dto.MessagePageDto;
+import com.hotelbooking.chatflow.dto.RegisterRequest;
+import com.hotelbooking.chatflow.dto.SendMessageRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * One simulated browser session. It behaves like the web client with its WebSocket down,
+ * which is the most expensive case for the server: it heartbeats, polls the conversation
+ * and friend lists (replaying ETags), polls the open conversation, sends messages to its
+ * friends, marks what it received as read and now and then searches for users.
+ */
+final class VirtualUser {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final String PASSWORD = "load-test-password";
+    // Messages per poll; a busier conversation catches up over the following polls
+    private static final int POLL_PAGE_SIZE = 50;
+
+    private final int index;
+    private final String username;
+    private final String email;
+    private final WebClient client;
+    private final LoadSettings settings;
+    private final List<VirtualUser> friends = new ArrayList<>();
+    // Newest message seen per conversation, the "after" cursor for polls
+    private final Map<Long, MessageCursor> lastMessages = new ConcurrentHashMap<>();
+    private final Map<String, String> etags = new ConcurrentHashMap<>();
+
+    private volatile LatencyRecorder recorder;
+    private volatile Long id;
+    private volatile String token;
+    private volatile VirtualUser activeFriend;
+
+    VirtualUser(int index, String runId, WebClient client, LatencyRecorder recorder, LoadSettings settings) {
+        this.index = index;
+        this.username = "load" + runId + "u" + index;
+        this.email = username + "@load.chatflow.test";
+        this.client = client;
+        this.recorder = recorder;
+        this.settings = settings;
+    }
+
+    /**
+     * Switches where response times go, so setup traffic is reported apart from the run.
+     */
+    void recordTo(LatencyRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    Mono<Void> register() {
+        RegisterRequest request = new RegisterRequest(email, username, "Load User " + index, PASSWORD);
+        return recorder.time("POST /api/auth/register", client.post()
+                        .uri("/api/auth/register")
+                        .bodyValue(request)
+                        .retrieve()
+                        .bodyToMono(AuthResponse.class)
+                        .timeout(REQUEST_TIMEOUT))
+                .doOnNext(this::signedIn)
+                .then();
+    }
+
+    /**
+     * Sends a friend request to {@code other} and has them accept it.
+     */
+    Mono<Void> befriend(VirtualUser other) {
+        return recorder.time("POST /api/friendships/request", authorized(client.post()
+                        .uri("/api/friendships/request")
+                        .bodyValue(new FriendRequestDto(other.id)))
+                        .retrieve()
+                        .bodyToMono(FriendshipDto.class)
+                        .timeout(REQUEST_TIMEOUT))
+                .flatMap(friendship -> recorder.time("PUT /api/friendships/{friendshipId}/accept",
+                        other.authorized(client.put()
+                                        .uri("/api/friendships/{friendshipId}/accept", friendship.getId()))
+                                .retrieve()
+                                .toBodilessEntity()
+                                .timeout(REQUEST_TIMEOUT)))
+                .doOnSuccess(accepted -> {
+                    addFriend(other);
+                    other.addFriend(this);
+                })
+                .then();
+    }
+
+    private synchronized void addFriend(VirtualUser friend) {
+        friends.add(friend);
+    }
+
+    /**
+     * Logs in after {@code startDelay}, then runs every periodic activity until {@code stop}
+     * fires, and finally goes offline. Failed requests are recorded and the loop carries on.
+     */
+    Mono<Void> run(Duration startDelay, Mono<Void> stop) {
+        return Mono.delay(startDelay)
+                .then(login())
+                .then(post("/api/users/status/online"))
+                .thenMany(Flux.merge(
+                        every(settings.heartbeatInterval(), () -> post("/api/users/heartbeat")),
+                        every(settings.listPollInterval(), () -> Mono.when(
+                                pollList("/api/messages/conversations"),
+                                pollList("/api/friendships/friends"))),
+                        every(settings.messagePollInterval(), this::pollActiveConversation),
+                        every(settings.sendInterval(), this::sendMessage),
+                        every(settings.searchInterval(), this::search)))
+                .takeUntilOther(stop)
+                .then(Mono.defer(() -> post("/api/users/status/offline")))
+                .onErrorResume(error -> Mono.empty());
+    }
+
+    private Flux<Object> every(Duration period, Supplier<Mono<?>> action) {
+        // Start at a random point in the period so users do not fire in lockstep
+        Duration offset = Duration.ofMillis(ThreadLocalRandom.current().nextLong(Math.max(period.toMillis(), 1)));
+        return Flux.interval(offset, period)
+                .onBackpressureDrop()
+                .concatMap(tick -> action.get()
+                        .onErrorResume(error -> Mono.empty())
+                        .then(Mono.empty()), 0);
+    }
+
+    private Mono<Void> login() {
+        return recorder.time("POST /api/auth/login", client.post()
+                        .uri("/api/auth/login")
+                        .bodyValue(new LoginRequest(email, PASSWORD))
+                        .retrieve()
+                        .bodyToMono(AuthResponse.class)
+                        .timeout(REQUEST_TIMEOUT))
+                .doOnNext(this::signedIn)
+                .then();
+    }
+
+    private void signedIn(AuthResponse response) {
+        this.id = response.getUser().getId();
+        this.token = response.getToken();
+    }
+
+    private Mono<Void> post(String path) {
+        return recorder.time("POST " + path, authorized(client.post().uri(path))
+                        .retrieve()
+                        .toBodilessEntity()
+                        .timeout(REQUEST_TIMEOUT))
+                .then();
+    }
+
+    private Mono<Void> pollList(String path) {
+        WebClient.RequestHeadersSpec<?> request = authorized(client.get().uri(path));
+        String etag = etags.get(path);
+        if (etag != null) {
+            request = request.header(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        return recorder.time("GET " + path, request
+                        .retrieve()
+                        .toBodilessEntity()
+                        .timeout(REQUEST_TIMEOUT))
+                .doOnNext(response -> {
+                    String current = response.getHeaders().getETag();
+                    if (current != null && response.getStatusCode() != HttpStatus.NOT_MODIFIED) {
+                        etags.put(path, current);
+                    }
+                })
+                .then();
+    }
+
+    private Mono<Void> pollActiveConversation() {
+        VirtualUser friend = activeFriend();
+        if (friend == null) {
+            return Mono.empty();
+        }
+        MessageCursor after = lastMessages.get(friend.id);
+        return recorder.time("GET /api/messages/conversation/{friendId}", authorized(client.get()
+                        .uri(builder -> builder.path("/api/messages/conversation/{friendId}")
+                                // The compact view the web client asks for, with each profile listed once
+                                .queryParam("view", "compact")
+                                .queryParamIfPresent("after", Optional.ofNullable(after))
+                                .queryParam("limit", POLL_PAGE_SIZE)
+                                .build(friend.id)))
+                        .retrieve()
+                        .bodyToMono(MessagePageDto.class)
+                        .timeout(REQUEST_TIMEOUT))
+                .map(MessagePageDto::getMessages)
+                .flatMap(messages -> {
+                    if (messages.isEmpty()) {
+                        return Mono.empty();
+                    }
+                    // Pages come oldest first, so the last message is the newest
+                    lastMessages.put(friend.id, MessageCursor.of(messages.get(messages.size() - 1)));
+                    boolean received = messages.stream().anyMatch(message -> friend.id.equals(message.getSenderId()));
+                    return received ? markConversationRead(friend) : Mono.empty();
+                });
+    }
+
+    private Mono<Void> markConversationRead(VirtualUser friend) {
+        return recorder.time("PUT /api/messages/conversation/{friendId}/read", authorized(client.put()
+                        .uri("/api/messages/conversation/{friendId}/read", friend.id))
+                        .retrieve()
+                        .toBodilessEntity()
+                        .timeout(REQUEST_TIMEOUT))
+                .then();
+    }
+
+    private Mono<Void> sendMessage() {
+        VirtualUser friend = switchConversation();
+        if (friend == null) {
+            return Mono.empty();
+        }
+        SendMessageRequest request = new SendMessageRequest(friend.id,
+                "Hello " + friend.username + ", this is message " + System.nanoTime() + " from " + username, "text");
+        return recorder.time("POST /api/messages", authorized(client.post()
+                        .uri("/api/messages")
+                        .bodyValue(request))
+                        .retrieve()
+                        .bodyToMono(MessageDto.class)
+                        .timeout(REQUEST_TIMEOUT))
+                .then();
+    }
+
+    private Mono<Void> search() {
+        List<VirtualUser> candidates = friendsSnapshot();
+        if (candidates.isEmpty()) {
+            return Mono.empty();
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String name = candidates.get(random.nextInt(candidates.size())).username;
+        // Typed prefixes of varying length, like the search box while the user types
+        String query = name.substring(0, random.nextInt(3, name.length() + 1));
+        return recorder.time("GET /api/friendships/search", authorized(client.get()
+                        .uri(builder -> builder.path("/api/friendships/search").queryParam("query", query).build()))
+                        .retrieve()
+                        .toBodilessEntity()
+                        .timeout(REQUEST_TIMEOUT))
+                .then();
+    }
+
+    private VirtualUser activeFriend() {
+        VirtualUser friend = activeFriend;
+        return friend != null ? friend : switchConversation();
+    }
+
+    private VirtualUser switchConversation() {
+        List<VirtualUser> candidates = friendsSnapshot();
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        VirtualUser friend = candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+        activeFriend = friend;
+        return friend;
+    }
+
+    private synchronized List<VirtualUser> friendsSnapshot() {
+        return List.copyOf(friends);
+    }
+
+    private WebClient.RequestHeadersSpec<?> authorized(WebClient.RequestHeadersSpec<?> request) {
+        return request.header(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+    }
+}
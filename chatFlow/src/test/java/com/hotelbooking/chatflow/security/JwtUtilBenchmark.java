@@ -0,0 +1,58 @@
+package com.hotelbooking.chatflow.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the per-request token check: a cache hit, a full signature verification
+ * (cache disabled), and issuing a token at login.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtUtilBenchmark {
+
+    private static final String SECRET = "chatFlowSecretKeyForJWTTokenGenerationAndValidation2024";
+    private static final long EXPIRATION_MS = 86400000L;
+
+    private JwtUtil cachingJwtUtil;
+    private JwtUtil uncachedJwtUtil;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        cachingJwtUtil = new JwtUtil(SECRET, EXPIRATION_MS, 100000, new SimpleMeterRegistry());
+        uncachedJwtUtil = new JwtUtil(SECRET, EXPIRATION_MS, 0, new SimpleMeterRegistry());
+        token = cachingJwtUtil.generateToken("alice@example.com", 42L);
+        cachingJwtUtil.verify(token);
+    }
+
+    @Benchmark
+    public JwtUtil.VerifiedToken verifyCached() {
+        return cachingJwtUtil.verify(token);
+    }
+
+    @Benchmark
+    public JwtUtil.VerifiedToken verifyUncached() {
+        return uncachedJwtUtil.verify(token);
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return cachingJwtUtil.generateToken("alice@example.com", 42L);
+    }
+}
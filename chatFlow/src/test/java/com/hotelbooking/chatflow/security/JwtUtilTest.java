@@ -0,0 +1,65 @@
+package com.hotelbooking.chatflow.security;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.security.SignatureException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JwtUtilTest {
+
+    private static final String SECRET = "test-secret-that-is-long-enough-for-hmac-sha256";
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void answersRepeatVerificationsFromTheCache() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000L, 100, meterRegistry);
+        String token = jwtUtil.generateToken("user@chatflow.com", 7L);
+
+        JwtUtil.VerifiedToken first = jwtUtil.verify(token);
+        JwtUtil.VerifiedToken second = jwtUtil.verify(token);
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.userId()).isEqualTo(7L);
+        assertThat(first.email()).isEqualTo("user@chatflow.com");
+        assertThat(verifications("verified")).isEqualTo(1);
+        assertThat(verifications("cached")).isEqualTo(1);
+    }
+
+    @Test
+    void stopsAcceptingACachedTokenAtItsExpiry() throws InterruptedException {
+        // exp has whole-second precision, so the token lapses one to two seconds from now
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 2_000L, 100, meterRegistry);
+        String token = jwtUtil.generateToken("user@chatflow.com", 7L);
+        Instant expiresAt = jwtUtil.verify(token).expiresAt();
+
+        Thread.sleep(Math.max(0, Duration.between(Instant.now(), expiresAt).toMillis()) + 50);
+
+        assertThatThrownBy(() -> jwtUtil.verify(token)).isInstanceOf(ExpiredJwtException.class);
+        assertThat(verifications("cached")).isZero();
+        assertThat(verifications("rejected")).isEqualTo(1);
+    }
+
+    @Test
+    void doesNotCacheRejectedTokens() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000L, 100, meterRegistry);
+        String forged = new JwtUtil(SECRET.replace('t', 'x'), 60_000L, 100, new SimpleMeterRegistry())
+                .generateToken("user@chatflow.com", 7L);
+
+        assertThatThrownBy(() -> jwtUtil.verify(forged)).isInstanceOf(SignatureException.class);
+        assertThatThrownBy(() -> jwtUtil.verify(forged)).isInstanceOf(SignatureException.class);
+        assertThat(verifications("rejected")).isEqualTo(2);
+        assertThat(verifications("cached")).isZero();
+    }
+
+    private long verifications(String result) {
+        return meterRegistry.get("chatflow.jwt.verify").tag("result", result).timer().count();
+    }
+}
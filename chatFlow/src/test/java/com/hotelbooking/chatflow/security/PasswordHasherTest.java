@@ -0,0 +1,90 @@
+package com.hotelbooking.chatflow.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PasswordHasherTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private PasswordHasher hasher;
+
+    @AfterEach
+    void tearDown() {
+        hasher.shutdown();
+    }
+
+    @Test
+    void shedsRequestsBeyondThreadsPlusQueue() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordEncoder slowEncoder = mock(PasswordEncoder.class);
+        when(slowEncoder.encode(anyString())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return "hash";
+        });
+        hasher = new PasswordHasher(slowEncoder, meterRegistry, 4, 1, 1);
+
+        // One hash running on the only thread, one waiting for it
+        Mono<String> running = hasher.encode("a").cache();
+        Mono<String> queued = hasher.encode("b").cache();
+        running.subscribe();
+        queued.subscribe();
+        started.await();
+
+        StepVerifier.create(hasher.encode("c"))
+                .expectErrorSatisfies(error -> assertThat(error)
+                        .isInstanceOfSatisfying(ResponseStatusException.class, e ->
+                                assertThat(e.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE)))
+                .verify(Duration.ofSeconds(5));
+        assertThat(meterRegistry.get("chatflow.password.rejected").counter().count()).isEqualTo(1);
+
+        release.countDown();
+        StepVerifier.create(running).expectNext("hash").verifyComplete();
+        StepVerifier.create(queued).expectNext("hash").verifyComplete();
+        // Finished hashes free their slots again
+        StepVerifier.create(hasher.encode("d")).expectNext("hash").verifyComplete();
+    }
+
+    @Test
+    void rehashesWhenTheCostDiffersInEitherDirection() {
+        hasher = new PasswordHasher(new BCryptPasswordEncoder(5), meterRegistry, 5, 1, 10);
+        String cheaper = new BCryptPasswordEncoder(4).encode("secret");
+        String costlier = new BCryptPasswordEncoder(6).encode("secret");
+
+        StepVerifier.create(hasher.upgrade("secret", cheaper))
+                .assertNext(hash -> assertThat(hash).startsWith("$2a$05$"))
+                .verifyComplete();
+        StepVerifier.create(hasher.upgrade("secret", costlier))
+                .assertNext(hash -> assertThat(hash).startsWith("$2a$05$"))
+                .verifyComplete();
+        assertThat(meterRegistry.get("chatflow.password.rehashed").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void leavesCurrentAndUnknownHashesAlone() {
+        hasher = new PasswordHasher(new BCryptPasswordEncoder(5), meterRegistry, 5, 1, 10);
+
+        StepVerifier.create(hasher.upgrade("secret", new BCryptPasswordEncoder(5).encode("secret")))
+                .verifyComplete();
+        StepVerifier.create(hasher.upgrade("secret", "{noop}secret"))
+                .verifyComplete();
+        assertThat(meterRegistry.get("chatflow.password.rehashed").counter().count()).isZero();
+    }
+}
@@ -0,0 +1,102 @@
+package com.hotelbooking.chatflow.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitFilterTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void allowsBurstOfCapacityThenRejectsWithRetryAfterOfOneInterval() {
+        // One token per 1000 s, so nothing refills while the test runs
+        RateLimitFilter filter = filter(new RateLimitProperties.Route(HttpMethod.POST, "/api/messages", 3, 0.001));
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(send(filter, 1L).getResponse().getStatusCode()).isNull();
+        }
+        MockServerWebExchange rejected = send(filter, 1L);
+
+        assertThat(rejected.getResponse().getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(rejected.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("1000");
+        assertThat(meterRegistry.get("chatflow.rate-limit.rejected").tag("route", "send").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void keepsSeparateBucketsPerUser() {
+        RateLimitFilter filter = filter(new RateLimitProperties.Route(HttpMethod.POST, "/api/messages", 1, 0.001));
+
+        assertThat(send(filter, 1L).getResponse().getStatusCode()).isNull();
+        assertThat(send(filter, 1L).getResponse().getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(send(filter, 2L).getResponse().getStatusCode()).isNull();
+    }
+
+    @Test
+    void leavesOtherRoutesAlone() {
+        RateLimitFilter filter = filter(new RateLimitProperties.Route(HttpMethod.POST, "/api/messages", 1, 0.001));
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/api/messages"));
+
+        for (int i = 0; i < 3; i++) {
+            filter.filter(exchange, passThrough()).block();
+        }
+
+        assertThat(exchange.getResponse().getStatusCode()).isNull();
+        assertThat(buckets()).isZero();
+    }
+
+    @Test
+    void evictsOnlyBucketsThatHaveRefilled() throws InterruptedException {
+        RateLimitFilter filter = new RateLimitFilter(new RateLimitProperties(true, Map.of(
+                "send", new RateLimitProperties.Route(HttpMethod.POST, "/api/messages", 1, 0.001),
+                "login", new RateLimitProperties.Route(HttpMethod.POST, "/api/auth/login", 1, 1_000_000))),
+                meterRegistry);
+
+        send(filter, 1L);
+        filter.filter(exchange(MockServerHttpRequest.post("/api/auth/login"), 1L), passThrough()).block();
+        assertThat(buckets()).isEqualTo(2);
+
+        // The login bucket refills within a microsecond
+        Thread.sleep(5);
+        filter.evictIdleBuckets();
+
+        assertThat(buckets()).isEqualTo(1);
+        assertThat(send(filter, 1L).getResponse().getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    private RateLimitFilter filter(RateLimitProperties.Route send) {
+        return new RateLimitFilter(new RateLimitProperties(true, Map.of("send", send)), meterRegistry);
+    }
+
+    private MockServerWebExchange send(RateLimitFilter filter, Long userId) {
+        MockServerWebExchange exchange = exchange(MockServerHttpRequest.post("/api/messages"), userId);
+        filter.filter(exchange, passThrough()).block();
+        return exchange;
+    }
+
+    private static MockServerWebExchange exchange(MockServerHttpRequest.BaseBuilder<?> request, Long userId) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(request);
+        exchange.getAttributes().put(JwtAuthenticationFilter.USER_ID_ATTRIBUTE, userId);
+        return exchange;
+    }
+
+    private static WebFilterChain passThrough() {
+        return exchange -> Mono.empty();
+    }
+
+    private double buckets() {
+        return meterRegistry.get("chatflow.rate-limit.buckets").gauge().value();
+    }
+}
@@ -0,0 +1,88 @@
+package com.hotelbooking.chatflow.service;
+
+import com.hotelbooking.chatflow.entity.Friendship;
+import com.hotelbooking.chatflow.service.FriendGraph.Adjacency;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FriendGraphAdjacencyTest {
+
+    private static final long USER = 10L;
+
+    @Test
+    void looksUpEdgesStoredInEitherDirection() {
+        Adjacency adjacency = Adjacency.of(USER, List.of(
+                edge(1, 10, 30, "ACCEPTED", 10),
+                edge(2, 5, 10, "ACCEPTED", 5),
+                edge(3, 10, 20, "PENDING", 20)));
+
+        assertThat(adjacency.hasEdge(5)).isTrue();
+        assertThat(adjacency.hasEdge(20)).isTrue();
+        assertThat(adjacency.hasEdge(30)).isTrue();
+        assertThat(adjacency.hasEdge(USER)).isFalse();
+        assertThat(adjacency.hasEdge(7)).isFalse();
+
+        assertThat(adjacency.status(5)).isEqualTo("ACCEPTED");
+        assertThat(adjacency.status(20)).isEqualTo("PENDING");
+        assertThat(adjacency.status(7)).isNull();
+
+        assertThat(adjacency.isFriend(30)).isTrue();
+        assertThat(adjacency.isFriend(20)).isFalse();
+        assertThat(adjacency.friendIds()).containsExactly(5, 30);
+    }
+
+    @Test
+    void handlesUsersWithoutEdges() {
+        Adjacency adjacency = Adjacency.of(USER, List.of());
+
+        assertThat(adjacency.hasEdge(1)).isFalse();
+        assertThat(adjacency.status(1)).isNull();
+        assertThat(adjacency.isFriend(1)).isFalse();
+        assertThat(adjacency.friendIds()).isEmpty();
+    }
+
+    @Test
+    void insertsNewEdgesInOrderAndUpdatesExistingOnes() {
+        Adjacency original = Adjacency.of(USER, List.of(
+                edge(1, 10, 30, "ACCEPTED", 10),
+                edge(2, 5, 10, "PENDING", 5)));
+
+        Adjacency accepted = original
+                .with(USER, edge(3, 10, 20, "ACCEPTED", 20))
+                .with(USER, edge(2, 5, 10, "ACCEPTED", 5));
+
+        assertThat(accepted.friendIds()).containsExactly(5, 20, 30);
+        assertThat(accepted.status(20)).isEqualTo("ACCEPTED");
+        // Changes produce a copy
+        assertThat(original.hasEdge(20)).isFalse();
+        assertThat(original.status(5)).isEqualTo("PENDING");
+    }
+
+    @Test
+    void removesOnlyTheEdgeThatWasDeleted() {
+        Adjacency adjacency = Adjacency.of(USER, List.of(
+                edge(1, 10, 30, "ACCEPTED", 10),
+                edge(4, 10, 20, "PENDING", 10)));
+
+        // A stale delete of an edge since replaced between the same users is ignored
+        assertThat(adjacency.without(USER, edge(3, 10, 20, "PENDING", 10))).isSameAs(adjacency);
+
+        Adjacency removed = adjacency.without(USER, edge(1, 10, 30, "ACCEPTED", 10));
+        assertThat(removed.hasEdge(30)).isFalse();
+        assertThat(removed.hasEdge(20)).isTrue();
+        assertThat(removed.friendIds()).isEmpty();
+    }
+
+    private static Friendship edge(long id, long userId, long friendId, String status, long requesterId) {
+        return Friendship.builder()
+                .id(id)
+                .userId(userId)
+                .friendId(friendId)
+                .status(status)
+                .requesterId(requesterId)
+                .build();
+    }
+}
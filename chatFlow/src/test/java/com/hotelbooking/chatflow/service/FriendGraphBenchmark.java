@@ -0,0 +1,113 @@
+package com.hotelbooking.chatflow.service;
+
+import com.hotelbooking.chatflow.dto.UserSearchDto;
+import com.hotelbooking.chatflow.entity.Friendship;
+import com.hotelbooking.chatflow.entity.User;
+import com.hotelbooking.chatflow.realtime.PresenceRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The in-memory work behind friendship checks and user search: building a user's adjacency,
+ * adding an edge, the friendship check, and decorating search hits with their friendship
+ * status.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FriendGraphBenchmark {
+
+    private static final long USER_ID = 1L;
+    private static final int SEARCH_HITS = 20;
+
+    @Param({"100", "1000"})
+    private int degree;
+
+    private List<Friendship> edges;
+    private FriendGraph.Adjacency adjacency;
+    private UserMapper userMapper;
+    private List<User> searchHits;
+    private long probe;
+    private Friendship newEdge;
+
+    @Setup
+    public void setUp() {
+        LocalDateTime now = LocalDateTime.now();
+        edges = new ArrayList<>(degree);
+        for (long peer = 2; peer <= degree + 1; peer++) {
+            edges.add(Friendship.builder()
+                    .id(peer)
+                    .userId(USER_ID)
+                    .friendId(peer)
+                    .status(peer % 10 == 0 ? "PENDING" : "ACCEPTED")
+                    .requesterId(peer % 20 == 0 ? peer : USER_ID)
+                    .createdAt(now.minusDays(peer))
+                    .updatedAt(now.minusHours(peer))
+                    .build());
+        }
+        adjacency = FriendGraph.Adjacency.of(USER_ID, edges);
+        userMapper = new UserMapper(new PresenceRegistry(null, null));
+
+        searchHits = new ArrayList<>(SEARCH_HITS);
+        for (long id = 2; id < 2 + SEARCH_HITS; id++) {
+            searchHits.add(User.builder()
+                    .id(id * 7)
+                    .email("user" + id + "@example.com")
+                    .username("user" + id)
+                    .fullName("User Number " + id)
+                    .status("Available")
+                    .isOnline(false)
+                    .build());
+        }
+        // An accepted friend in the middle of the sorted id array
+        probe = degree / 2 + 1;
+        newEdge = Friendship.builder()
+                .id(degree + 2L)
+                .userId(USER_ID)
+                .friendId(degree + 2L)
+                .status("PENDING")
+                .requesterId(USER_ID)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+    }
+
+    @Benchmark
+    public FriendGraph.Adjacency buildAdjacency() {
+        return FriendGraph.Adjacency.of(USER_ID, edges);
+    }
+
+    @Benchmark
+    public FriendGraph.Adjacency addEdge() {
+        return adjacency.with(USER_ID, newEdge);
+    }
+
+    @Benchmark
+    public boolean isFriend() {
+        return adjacency.isFriend(probe);
+    }
+
+    @Benchmark
+    public List<UserSearchDto> decorateSearchHits() {
+        return searchHits.stream()
+                .map(user -> userMapper.toSearchDto(user, adjacency.status(user.getId())))
+                .toList();
+    }
+}
@@ -0,0 +1,171 @@
+package com.hotelbooking.chatflow.service;
+
+import com.hotelbooking.chatflow.entity.Message;
+import com.hotelbooking.chatflow.repository.MessageRepository;
+import io.r2dbc.spi.R2dbcDataIntegrityViolationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.RowsFetchSpec;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.util.function.Tuples;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageBatchWriterTest {
+
+    private static final LocalDateTime SENT_AT = LocalDateTime.of(2031, 3, 14, 9, 30);
+
+    private final MessageRepository messageRepository = mock(MessageRepository.class);
+    private final MessagePartitionMaintenance partitionMaintenance = mock(MessagePartitionMaintenance.class);
+    private final DatabaseClient databaseClient = mock(DatabaseClient.class);
+    private final TransactionalOperator transactionalOperator = mock(TransactionalOperator.class);
+    // Ids the repository has been asked to save with, one per attempt
+    private final List<Long> savedWithIds = new ArrayList<>();
+    private MessageBatchWriter writer;
+
+    @AfterEach
+    void tearDown() {
+        writer.stop();
+    }
+
+    @Test
+    void createsTheMissingPartitionAndRetriesOnce() {
+        writer = writer(false);
+        stubSaves(Mono.error(missingPartition()));
+        when(partitionMaintenance.createPartition(SENT_AT.toLocalDate())).thenReturn(Mono.empty());
+
+        StepVerifier.create(writer.write(message(), this::ids))
+                .expectNext(100L)
+                .verifyComplete();
+
+        verify(partitionMaintenance).createPartition(SENT_AT.toLocalDate());
+        // The retry inserts afresh rather than updating the id the failed attempt was given
+        assertThat(savedWithIds).containsExactly(null, null);
+    }
+
+    @Test
+    void givesUpWhenTheRetryFailsToo() {
+        writer = writer(false);
+        stubSaves(Mono.error(missingPartition()), Mono.error(missingPartition()));
+        when(partitionMaintenance.createPartition(SENT_AT.toLocalDate())).thenReturn(Mono.empty());
+
+        StepVerifier.create(writer.write(message(), this::ids))
+                .expectError(R2dbcDataIntegrityViolationException.class)
+                .verify();
+
+        verify(partitionMaintenance, times(1)).createPartition(any());
+        verify(messageRepository, times(2)).save(any());
+    }
+
+    @Test
+    void leavesOtherCheckViolationsAlone() {
+        writer = writer(false);
+        stubSaves(Mono.error(new R2dbcDataIntegrityViolationException(
+                "new row for relation \"messages\" violates check constraint", "23514")));
+
+        StepVerifier.create(writer.write(message(), this::ids))
+                .expectError(R2dbcDataIntegrityViolationException.class)
+                .verify();
+
+        verify(partitionMaintenance, never()).createPartition(any());
+        verify(messageRepository, times(1)).save(any());
+    }
+
+    @Test
+    void fallsBackToSingleWritesThatCreateThePartitionWhenABatchMisses() {
+        writer = writer(true);
+        // The first row's id comes back before the insert fails
+        stubBatchInsert(Flux.concat(Flux.just(Tuples.of(1L, 900L)), Flux.error(missingPartition())));
+        stubSaves(Mono.error(missingPartition()));
+        when(partitionMaintenance.createPartition(SENT_AT.toLocalDate())).thenReturn(Mono.empty());
+
+        Mono<List<Long>> both = Flux.merge(writer.write(message(), this::ids), writer.write(message(), this::ids))
+                .collectList();
+
+        StepVerifier.create(both)
+                .assertNext(ids -> assertThat(ids).containsExactlyInAnyOrder(100L, 101L))
+                .verifyComplete();
+        verify(databaseClient).sql(anyString());
+        verify(partitionMaintenance, times(1)).createPartition(SENT_AT.toLocalDate());
+        assertThat(savedWithIds).containsOnlyNulls();
+    }
+
+    private MessageBatchWriter writer(boolean batching) {
+        when(transactionalOperator.transactional(any(Mono.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        MessageBatchWriter writer = new MessageBatchWriter(messageRepository, partitionMaintenance, databaseClient,
+                transactionalOperator, batching, 2, Duration.ofSeconds(10).toMillis(), 1);
+        writer.start();
+        return writer;
+    }
+
+    /**
+     * Saves fail with the given errors in turn, then succeed with ids handed out from 100.
+     */
+    @SafeVarargs
+    private void stubSaves(Mono<Message>... failures) {
+        Queue<Mono<Message>> outcomes = new ArrayDeque<>(List.of(failures));
+        AtomicLong nextId = new AtomicLong(100);
+        when(messageRepository.save(any(Message.class))).thenAnswer(invocation -> {
+            Message message = invocation.getArgument(0);
+            savedWithIds.add(message.getId());
+            Mono<Message> failure = outcomes.poll();
+            if (failure != null) {
+                // As if the failed attempt had got as far as assigning an id
+                message.setId(999L);
+                return failure;
+            }
+            message.setId(nextId.getAndIncrement());
+            return Mono.just(message);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubBatchInsert(Flux<Object> rows) {
+        DatabaseClient.GenericExecuteSpec spec = mock(DatabaseClient.GenericExecuteSpec.class);
+        RowsFetchSpec<Object> fetch = mock(RowsFetchSpec.class);
+        when(databaseClient.sql(anyString())).thenReturn(spec);
+        when(spec.bind(anyString(), any())).thenReturn(spec);
+        when(spec.map(any(Function.class))).thenReturn(fetch);
+        when(fetch.all()).thenReturn(rows);
+    }
+
+    private Mono<List<Long>> ids(List<Message> saved) {
+        return Mono.just(saved.stream().map(Message::getId).toList());
+    }
+
+    private static Message message() {
+        return Message.builder()
+                .senderId(1L)
+                .receiverId(2L)
+                .content("hello")
+                .messageType("TEXT")
+                .isRead(false)
+                .createdAt(SENT_AT)
+                .build();
+    }
+
+    private static R2dbcDataIntegrityViolationException missingPartition() {
+        return new R2dbcDataIntegrityViolationException(
+                "no partition of relation \"messages\" found for row", "23514");
+    }
+}
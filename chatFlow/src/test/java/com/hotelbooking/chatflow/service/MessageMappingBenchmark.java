@@ -0,0 +1,137 @@
+package com.hotelbooking.chatflow.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.hotelbooking.chatflow.dto.ConversationDto;
+import com.hotelbooking.chatflow.dto.MessageDto;
+import com.hotelbooking.chatflow.entity.ConversationSummary;
+import com.hotelbooking.chatflow.entity.Message;
+import com.hotelbooking.chatflow.entity.User;
+import com.hotelbooking.chatflow.realtime.PresenceRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity-to-DTO mapping for a message page and a conversation list, and the JSON
+ * encoding of a mapped page, with profiles embedded per message and listed once.
+ * Nothing here touches the database or the event bus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageMappingBenchmark {
+
+    @Param({"50", "200"})
+    private int size;
+
+    private MessageMapper messageMapper;
+    private ObjectMapper objectMapper;
+    private Map<Long, User> users;
+    private List<Message> page;
+    private List<ConversationSummary> summaries;
+    private List<MessageDto> mappedPage;
+
+    @Setup
+    public void setUp() {
+        messageMapper = new MessageMapper(new UserMapper(new PresenceRegistry(null, null)));
+        objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+        LocalDateTime now = LocalDateTime.now();
+        users = new HashMap<>();
+        for (long id = 1; id <= size + 1; id++) {
+            users.put(id, user(id, now));
+        }
+
+        page = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            page.add(Message.builder()
+                    .id((long) i + 1)
+                    .senderId(i % 2 == 0 ? 1L : 2L)
+                    .receiverId(i % 2 == 0 ? 2L : 1L)
+                    .content("Message number " + i + " in a fairly ordinary conversation")
+                    .messageType("TEXT")
+                    .isRead(false)
+                    .createdAt(now.minusMinutes(size - i))
+                    .build());
+        }
+
+        summaries = new ArrayList<>(size);
+        for (long peerId = 2; peerId <= size + 1; peerId++) {
+            summaries.add(ConversationSummary.builder()
+                    .userId(1L)
+                    .peerId(peerId)
+                    .lastMessageId(peerId * 10)
+                    .lastMessagePreview("Latest message from user " + peerId)
+                    .lastMessageSenderId(peerId % 2 == 0 ? peerId : 1L)
+                    .lastMessageAt(now.minusMinutes(peerId))
+                    .unreadCount((int) (peerId % 5))
+                    .lastReadMessageId(peerId * 10 - 1)
+                    .lastReadMessageAt(now.minusMinutes(peerId + 1))
+                    .build());
+        }
+
+        mappedPage = mapPage();
+    }
+
+    @Benchmark
+    public List<MessageDto> mapPage() {
+        List<MessageDto> dtos = new ArrayList<>(page.size());
+        for (Message message : page) {
+            dtos.add(messageMapper.toDto(message, users, false));
+        }
+        return dtos;
+    }
+
+    @Benchmark
+    public List<ConversationDto> mapConversations() {
+        return messageMapper.toConversationDtos(summaries, users);
+    }
+
+    @Benchmark
+    public byte[] serializePage() throws Exception {
+        return objectMapper.writeValueAsBytes(mappedPage);
+    }
+
+    @Benchmark
+    public byte[] mapAndSerializeCompactPage() throws Exception {
+        return objectMapper.writeValueAsBytes(
+                messageMapper.toPage(page, List.of(users.get(1L), users.get(2L)), Map.of()));
+    }
+
+    private static User user(long id, LocalDateTime now) {
+        return User.builder()
+                .id(id)
+                .email("user" + id + "@example.com")
+                .username("user" + id)
+                .fullName("User Number " + id)
+                .phoneNumber("+1555000" + id)
+                .avatarUrl("https://example.com/avatars/" + id + ".png")
+                .status("Available")
+                .bio("Bio of user " + id)
+                .isOnline(id % 3 == 0)
+                .lastSeen(now.minusHours(id))
+                .build();
+    }
+}
@@ -0,0 +1,194 @@
+package com.hotelbooking.chatflow.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hotelbooking.chatflow.dto.SyncEventDto;
+import com.hotelbooking.chatflow.dto.SyncResponse;
+import com.hotelbooking.chatflow.entity.UserEvent;
+import com.hotelbooking.chatflow.repository.UserEventRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.r2dbc.core.RowsFetchSpec;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.function.Function;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SyncServiceTest {
+
+    private static final Long USER = 1L;
+
+    private final UserEventRepository userEventRepository = mock(UserEventRepository.class);
+    private final DatabaseClient databaseClient = mock(DatabaseClient.class);
+    private final SyncService syncService = new SyncService(userEventRepository, databaseClient, new ObjectMapper());
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(syncService, "retentionDays", 30);
+        ReflectionTestUtils.setField(syncService, "pruneBatchSize", 100);
+        when(userEventRepository.findLatestSeq(USER)).thenReturn(Mono.just(50L));
+        when(userEventRepository.findPrunedSeq(USER)).thenReturn(Mono.just(0L));
+    }
+
+    @Test
+    void returnsTheCurrentPositionWithoutSince() {
+        StepVerifier.create(syncService.sync(USER, null, 10))
+                .assertNext(response -> {
+                    assertThat(response.getEvents()).isEmpty();
+                    assertThat(response.getNextSince()).isEqualTo(50L);
+                    assertThat(response.getResyncRequired()).isFalse();
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void pagesWithOneExtraRowToDetectMore() {
+        when(userEventRepository.findAfter(USER, 10L, 3)).thenReturn(events(11, 12, 13));
+
+        StepVerifier.create(syncService.sync(USER, 10L, 2))
+                .assertNext(response -> {
+                    assertThat(response.getEvents()).extracting(SyncEventDto::getSeq).containsExactly(11L, 12L);
+                    assertThat(response.getNextSince()).isEqualTo(12L);
+                    assertThat(response.getHasMore()).isTrue();
+                    assertThat(response.getResyncRequired()).isFalse();
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void keepsSinceOnTheLastPage() {
+        when(userEventRepository.findAfter(USER, 13L, 3)).thenReturn(Flux.empty());
+
+        StepVerifier.create(syncService.sync(USER, 13L, 2))
+                .assertNext(response -> {
+                    assertThat(response.getEvents()).isEmpty();
+                    assertThat(response.getNextSince()).isEqualTo(13L);
+                    assertThat(response.getHasMore()).isFalse();
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void capsThePageSize() {
+        when(userEventRepository.findAfter(USER, 0L, 1001)).thenReturn(Flux.empty());
+
+        StepVerifier.create(syncService.sync(USER, 0L, 5000))
+                .expectNextCount(1)
+                .verifyComplete();
+        verify(userEventRepository).findAfter(USER, 0L, 1001);
+    }
+
+    @Test
+    void flagsResyncWhenSinceIsBelowThePrunedHorizon() {
+        when(userEventRepository.findPrunedSeq(USER)).thenReturn(Mono.just(20L));
+        when(userEventRepository.findAfter(USER, 10L, 3)).thenReturn(events(21, 22, 23));
+
+        StepVerifier.create(syncService.sync(USER, 10L, 2))
+                .assertNext(response -> {
+                    assertThat(response.getEvents()).isEmpty();
+                    assertThat(response.getNextSince()).isEqualTo(50L);
+                    assertThat(response.getHasMore()).isFalse();
+                    assertThat(response.getResyncRequired()).isTrue();
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void syncsNormallyFromExactlyThePrunedHorizon() {
+        when(userEventRepository.findPrunedSeq(USER)).thenReturn(Mono.just(20L));
+        when(userEventRepository.findAfter(USER, 20L, 3)).thenReturn(events(21));
+
+        StepVerifier.create(syncService.sync(USER, 20L, 2))
+                .assertNext(response -> {
+                    assertThat(response.getEvents()).extracting(SyncEventDto::getSeq).containsExactly(21L);
+                    assertThat(response.getResyncRequired()).isFalse();
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void prunesInBatchesUntilOneComesBackShort() {
+        Queue<Long> batches = stubPruneBatches(100L, 100L, 7L, 100L);
+
+        StepVerifier.create(syncService.pruneJournal()).verifyComplete();
+
+        assertThat(batches).containsExactly(100L);
+    }
+
+    @Test
+    void stopsAfterAnEmptyBatch() {
+        Queue<Long> batches = stubPruneBatches(100L, 0L, 100L);
+
+        StepVerifier.create(syncService.pruneJournal()).verifyComplete();
+
+        assertThat(batches).containsExactly(100L);
+    }
+
+    @Test
+    void swallowsPruneFailuresUntilTheNextRun() {
+        DatabaseClient.GenericExecuteSpec spec = stubPruneStatement();
+        RowsFetchSpec<Long> failing = fetchSpec(Mono.error(new IllegalStateException("connection lost")));
+        when(spec.map(any(Function.class))).thenReturn(failing);
+
+        StepVerifier.create(syncService.pruneJournal()).verifyComplete();
+    }
+
+    @Test
+    void keepsEverythingWithZeroRetention() {
+        ReflectionTestUtils.setField(syncService, "retentionDays", 0);
+
+        StepVerifier.create(syncService.pruneJournal()).verifyComplete();
+
+        verify(databaseClient, never()).sql(anyString());
+    }
+
+    /**
+     * Each run of the prune statement reports the next count; returns the counts left over.
+     */
+    private Queue<Long> stubPruneBatches(Long... deleted) {
+        Queue<Long> batches = new ArrayDeque<>(List.of(deleted));
+        DatabaseClient.GenericExecuteSpec spec = stubPruneStatement();
+        RowsFetchSpec<Long> fetch = fetchSpec(Mono.fromCallable(batches::remove));
+        when(spec.map(any(Function.class))).thenReturn(fetch);
+        return batches;
+    }
+
+    private DatabaseClient.GenericExecuteSpec stubPruneStatement() {
+        DatabaseClient.GenericExecuteSpec spec = mock(DatabaseClient.GenericExecuteSpec.class);
+        when(databaseClient.sql(anyString())).thenReturn(spec);
+        when(spec.bind(anyString(), any())).thenReturn(spec);
+        return spec;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RowsFetchSpec<Long> fetchSpec(Mono<Long> one) {
+        RowsFetchSpec<Long> fetch = mock(RowsFetchSpec.class);
+        when(fetch.one()).thenReturn(one);
+        return fetch;
+    }
+
+    private static Flux<UserEvent> events(long... seqs) {
+        return Flux.fromStream(LongStream.of(seqs).mapToObj(seq -> UserEvent.builder()
+                .userId(USER)
+                .seq(seq)
+                .type("message.created")
+                .payload("{}")
+                .createdAt(LocalDateTime.now())
+                .build()));
+    }
+}
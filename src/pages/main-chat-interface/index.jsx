@@ -1,7 +1,8 @@
-import React, { useState, useEffect } from 'react';
+import React, { useState, useEffect, useRef } from 'react';
 import { useNavigate, useLocation } from 'react-router-dom';
 import { useAuth } from '../../contexts/AuthContext';
 import { mockConversations, mockUsers, mockMessages } from '../../lib/mockData';
+import { realtimeService } from '../../services/realtime';
 import Sidebar from './components/Sidebar';
 import MessageThread from './components/MessageThread';
 import MessageInput from './components/MessageInput';
@@ -18,6 +19,8 @@ const MainChatInterface = () => {
   const [conversations, setConversations] = useState([]);
   const [users, setUsers] = useState([]);
   const [loadingConversations, setLoadingConversations] = useState(false);
+  const activeConversationIdRef = useRef(null);
+  const messagesRef = useRef([]);
 
   // Current user from auth context
   const currentUser = userProfile ? {
@@ -53,19 +56,7 @@ const MainChatInterface = () => {
       console.log('Loaded conversations:', apiConversations);
       
       // Transform API conversations to match UI format
-      const transformedConversations = (apiConversations || []).map(conv => ({
-        id: conv.friend.id,
-        name: conv.friend.fullName || conv.friend.username,
-        avatar: conv.friend.avatarUrl || `https://ui-avatars.com/api/?name=${encodeURIComponent(conv.friend.fullName || conv.friend.username)}&background=random`,
-        avatarAlt: `${conv.friend.username}'s avatar`,
-        lastMessage: conv.lastMessage?.content || 'No messages yet',
-        timestamp: conv.lastMessage?.createdAt ? formatTimestamp(conv.lastMessage.createdAt) : 'Now',
-        lastMessageTime: conv.lastMessage?.createdAt,
-        unreadCount: conv.unreadCount || 0,
-        status: conv.friend.isOnline ? 'online' : 'offline',
-        isOnline: conv.friend.isOnline,
-        friendData: conv.friend
-      }));
+      const transformedConversations = (apiConversations || []).map(toUiConversation);
       
       setConversations(transformedConversations);
     } catch (error) {
@@ -76,6 +67,20 @@ const MainChatInterface = () => {
     }
   };
 
+  const toUiConversation = (conv) => ({
+    id: conv.friend.id,
+    name: conv.friend.fullName || conv.friend.username,
+    avatar: conv.friend.avatarUrl || `https://ui-avatars.com/api/?name=${encodeURIComponent(conv.friend.fullName || conv.friend.username)}&background=random`,
+    avatarAlt: `${conv.friend.username}'s avatar`,
+    lastMessage: conv.lastMessage?.content || 'No messages yet',
+    timestamp: conv.lastMessage?.createdAt ? formatTimestamp(conv.lastMessage.createdAt) : 'Now',
+    lastMessageTime: conv.lastMessage?.createdAt,
+    unreadCount: conv.unreadCount || 0,
+    status: conv.friend.isOnline ? 'online' : 'offline',
+    isOnline: conv.friend.isOnline,
+    friendData: conv.friend
+  });
+
   const formatTimestamp = (timestamp) => {
     const date = new Date(timestamp);
     const now = new Date();
@@ -139,23 +144,81 @@ const MainChatInterface = () => {
     // eslint-disable-next-line react-hooks/exhaustive-deps
   }, [activeConversation?.id]); // Only depend on conversation ID, not the whole object
 
-  // Poll for new messages in active conversation
+  useEffect(() => {
+    activeConversationIdRef.current = activeConversation?.id ?? null;
+  }, [activeConversation?.id]);
+
+  useEffect(() => {
+    messagesRef.current = messages;
+  }, [messages]);
+
+  // Receive pushed messages over the WebSocket
+  useEffect(() => {
+    if (!currentUser) return;
+
+    realtimeService.connect();
+    const unsubscribe = realtimeService.subscribe((event) => {
+      const activeId = activeConversationIdRef.current;
+
+      if (event.type === 'connection.open') {
+        // Catch up on anything sent while we were disconnected
+        loadConversations(true);
+        if (activeId) loadMessages(activeId);
+        return;
+      }
+
+      if (event.type === 'message.created') {
+        const msg = event.payload;
+        // Our own sends are already shown optimistically by handleSendMessage
+        if (msg.senderId !== currentUser.id && msg.senderId === activeId) {
+          appendMessage(msg);
+        }
+        return;
+      }
+
+      if (event.type === 'conversation.updated') {
+        applyConversationDelta(event.payload, activeId);
+        return;
+      }
+
+      if (event.type === 'presence.changed') {
+        const { friendId, isOnline } = event.payload;
+        const status = isOnline ? 'online' : 'offline';
+        setConversations(prev => prev.map(conv =>
+          conv.id === friendId ? { ...conv, isOnline, status } : conv
+        ));
+        setUsers(prev => prev.map(u =>
+          u.id === friendId ? { ...u, isOnline, status } : u
+        ));
+      }
+    });
+
+    return () => {
+      unsubscribe();
+      realtimeService.disconnect();
+    };
+    // eslint-disable-next-line react-hooks/exhaustive-deps
+  }, [currentUser?.id]);
+
+  // Poll for new messages in active conversation while the WebSocket is down
   useEffect(() => {
     if (!activeConversation || !currentUser) return;
 
     const pollInterval = setInterval(() => {
-      loadMessages(activeConversation.id);
+      if (realtimeService.isConnected()) return;
+      loadNewMessages(activeConversation.id);
     }, 3000); // Poll every 3 seconds
 
     return () => clearInterval(pollInterval);
     // eslint-disable-next-line react-hooks/exhaustive-deps
   }, [activeConversation?.id]);
 
-  // Poll for conversation updates (new messages from other users)
+  // Poll for conversation updates while the WebSocket is down
   useEffect(() => {
     if (!currentUser) return;
 
     const pollInterval = setInterval(() => {
+      if (realtimeService.isConnected()) return;
       loadConversations(true); // Silent reload (no loading spinner)
       loadFriends(); // Also refresh friends list for online status
     }, 5000); // Poll every 5 seconds
@@ -202,6 +265,68 @@ const MainChatInterface = () => {
     }
   };
 
+  // Fetch only messages newer than the last one we already have, in the server's (createdAt, id) order
+  const loadNewMessages = async (friendId) => {
+    const last = messagesRef.current
+      .filter(m => typeof m.id === 'number' && m.createdAt)
+      .reduce((newest, m) => (!newest || m.createdAt > newest.createdAt
+        || (m.createdAt === newest.createdAt && m.id > newest.id) ? m : newest), null);
+    if (!last) {
+      loadMessages(friendId);
+      return;
+    }
+
+    try {
+      const { messageAPI } = await import('../../services/api');
+      const newMessages = await messageAPI.getConversationMessages(friendId, { after: last });
+      if (friendId !== activeConversationIdRef.current) return;
+      (newMessages || []).forEach(appendMessage);
+    } catch (error) {
+      console.error('Error loading new messages:', error);
+    }
+  };
+
+  const appendMessage = (msg) => {
+    setMessages((prev) => {
+      if (prev.some(m => m.id === msg.id)) return prev;
+      return [...prev, {
+        id: msg.id,
+        text: msg.content,
+        senderId: msg.senderId,
+        timestamp: new Date(msg.createdAt),
+        createdAt: msg.createdAt,
+        status: msg.isRead ? 'read' : 'delivered',
+        type: msg.messageType || 'text'
+      }];
+    });
+  };
+
+  const applyConversationDelta = (delta, activeId) => {
+    setConversations(prev => {
+      const existing = prev.find(conv => conv.id === delta.friendId);
+      if (!existing && !delta.friend) return prev;
+
+      const base = existing || toUiConversation({ friend: delta.friend, lastMessage: null, unreadCount: 0 });
+      const updated = { ...base };
+      if (delta.lastMessage) {
+        updated.lastMessage = delta.lastMessage.content;
+        updated.lastMessageTime = delta.lastMessage.createdAt;
+        updated.timestamp = formatTimestamp(delta.lastMessage.createdAt);
+      }
+      if (delta.unreadCount != null) {
+        // The open conversation is marked read as soon as it is viewed
+        updated.unreadCount = delta.friendId === activeId ? 0 : delta.unreadCount;
+      }
+
+      const others = prev.filter(conv => conv.id !== delta.friendId);
+      return delta.lastMessage ? [updated, ...others] : prev.map(conv => conv.id === delta.friendId ? updated : conv);
+    });
+
+    if (delta.friendId === activeId && delta.unreadCount > 0) {
+      markConversationAsRead(activeId);
+    }
+  };
+
   const markConversationAsRead = async (friendId) => {
     try {
       const { messageAPI } = await import('../../services/api');
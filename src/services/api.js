@@ -3,17 +3,23 @@ const API_BASE_URL = import.meta.env.VITE_API_URL || 'http://localhost:8080/api'
 class ApiService {
   constructor() {
     this.baseURL = API_BASE_URL;
+    // Last ETag-tagged GET response per token and endpoint, replayed on 304 Not Modified
+    this.etagCache = new Map();
   }
 
   async request(endpoint, options = {}) {
     const url = `${this.baseURL}${endpoint}`;
     const token = localStorage.getItem('chatflow_token');
     
+    const cacheKey = `${token}|${endpoint}`;
+    const cached = options.method === 'GET' ? this.etagCache.get(cacheKey) : undefined;
+    
     const config = {
       ...options,
       headers: {
         'Content-Type': 'application/json',
         ...(token && { Authorization: `Bearer ${token}` }),
+        ...(cached && { 'If-None-Match': cached.etag }),
         ...options.headers,
       },
     };
@@ -21,12 +27,21 @@ class ApiService {
     try {
       const response = await fetch(url, config);
       
+      if (response.status === 304 && cached) {
+        return cached.data;
+      }
+      
       if (!response.ok) {
         const error = await response.json().catch(() => ({ message: 'Request failed' }));
         throw new Error(error.message || `HTTP error! status: ${response.status}`);
       }
       
-      return await response.json();
+      const data = await response.json();
+      const etag = response.headers.get('ETag');
+      if (options.method === 'GET' && etag) {
+        this.etagCache.set(cacheKey, { etag, data });
+      }
+      return data;
     } catch (error) {
       console.error('API request failed:', error);
       throw error;
@@ -90,7 +105,16 @@ export const messageAPI = {
   sendMessage: (receiverId, content, messageType = 'text') => 
     apiService.post('/messages', { receiverId, content, messageType }),
   getConversations: () => apiService.get('/messages/conversations'),
-  getConversationMessages: (friendId) => apiService.get(`/messages/conversation/${friendId}`),
+  // before/after are messages already loaded; the cursor is their createdAt and id
+  getConversationMessages: (friendId, { before, after, limit } = {}) => {
+    // Compact pages list the two participants once instead of on every message
+    const params = new URLSearchParams({ view: 'compact' });
+    if (before != null) params.set('before', `${before.createdAt},${before.id}`);
+    if (after != null) params.set('after', `${after.createdAt},${after.id}`);
+    if (limit != null) params.set('limit', limit);
+    return apiService.get(`/messages/conversation/${friendId}?${params}`)
+      .then(page => page?.messages || []);
+  },
   markAsRead: (messageId) => apiService.put(`/messages/${messageId}/read`),
   markConversationAsRead: (friendId) => apiService.put(`/messages/conversation/${friendId}/read`),
 };
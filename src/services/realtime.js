@@ -0,0 +1,73 @@
+const API_BASE_URL = import.meta.env.VITE_API_URL || 'http://localhost:8080/api';
+const WS_URL = import.meta.env.VITE_WS_URL
+  || `${API_BASE_URL.replace(/^http/, 'ws').replace(/\/api\/?$/, '')}/ws/messages`;
+
+const MAX_RETRY_DELAY = 30000;
+
+class RealtimeService {
+  constructor() {
+    this.socket = null;
+    this.listeners = new Set();
+    this.retryDelay = 1000;
+    this.retryTimer = null;
+    this.shouldReconnect = false;
+  }
+
+  connect() {
+    const token = localStorage.getItem('chatflow_token');
+    if (!token || this.socket) return;
+
+    this.shouldReconnect = true;
+    const socket = new WebSocket(`${WS_URL}?access_token=${encodeURIComponent(token)}`);
+    this.socket = socket;
+
+    socket.onopen = () => {
+      this.retryDelay = 1000;
+      // Let subscribers resync anything missed while the socket was down
+      this.emit({ type: 'connection.open' });
+    };
+
+    socket.onmessage = (event) => {
+      try {
+        this.emit(JSON.parse(event.data));
+      } catch (error) {
+        console.error('Invalid realtime event:', error);
+      }
+    };
+
+    socket.onclose = () => {
+      this.socket = null;
+      this.emit({ type: 'connection.closed' });
+      if (this.shouldReconnect) {
+        this.retryTimer = setTimeout(() => this.connect(), this.retryDelay);
+        this.retryDelay = Math.min(this.retryDelay * 2, MAX_RETRY_DELAY);
+      }
+    };
+  }
+
+  disconnect() {
+    this.shouldReconnect = false;
+    clearTimeout(this.retryTimer);
+    if (this.socket) {
+      this.socket.close();
+      this.socket = null;
+    }
+  }
+
+  isConnected() {
+    return this.socket?.readyState === WebSocket.OPEN;
+  }
+
+  subscribe(listener) {
+    this.listeners.add(listener);
+    return () => this.listeners.delete(listener);
+  }
+
+  emit(event) {
+    this.listeners.forEach((listener) => listener(event));
+  }
+}
+
+export const realtimeService = new RealtimeService();
+
+export default realtimeService;